@@ -0,0 +1,48 @@
+package csp.sample;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a CSP token response by databind and by the streaming decoder of {@link CSPTokens}.
+ * Run with {@code -prof gc} to also compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSPTokensDecodeBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        response = ("{\"id_token\":\"" + "i".repeat(1500) + "\"," +
+                "\"token_type\":\"bearer\"," +
+                "\"expires_in\":1799," +
+                "\"scope\":\"openid ALL_PERMISSIONS customer_number group_names\"," +
+                "\"access_token\":\"" + "a".repeat(2500) + "\"," +
+                "\"refresh_token\":\"" + "r".repeat(60) + "\"}").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public CSPTokens databind() throws IOException {
+        return objectMapper.readValue(response, CSPTokens.class);
+    }
+
+    @Benchmark
+    public CSPTokens streaming() throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            return CSPTokens.read(parser);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package csp.sample;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cached tokens in the shape of the original data class, plain strings without interning or claims, against
+ * the current tokens as fetched and projected, which drop the ID and refresh tokens.
+ * Retained bytes of the cached tokens are printed once per trial, run with {@code -prof gc} to also compare
+ * allocations of decoding a CSP response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSPTokensFootprintBenchmark {
+
+    private static final int cachedTokens = 10_000;
+
+    @Param({"baseline", "fetched", "projected"})
+    private String shape;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = tokenResponse(0);
+        Object[] cache = new Object[cachedTokens];
+        for (int i = 0; i < cachedTokens; i++) {
+            cache[i] = decode(tokenResponse(i));
+        }
+        long retained = GraphLayout.parseInstance((Object) cache).totalSize();
+        System.out.println("Retained bytes per cached tokens: " + retained / cachedTokens);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return decode(response);
+    }
+
+    private Object decode(final byte[] json) throws IOException {
+        switch (shape) {
+            case "baseline":
+                return objectMapper.readValue(json, BaselineTokens.class);
+            case "fetched":
+                return objectMapper.readValue(json, CSPTokens.class);
+            default:
+                return objectMapper.readValue(json, CSPTokens.class).project(false, false);
+        }
+    }
+
+    /**
+     * @param tenant number making the tokens of each tenant unique
+     * @return CSP response with JWTs of realistic size
+     */
+    private static byte[] tokenResponse(final int tenant) {
+        return ("{\"id_token\":\"" + jwt(tenant, 1500) + "\"," +
+                "\"token_type\":\"bearer\"," +
+                "\"expires_in\":1799," +
+                "\"scope\":\"openid ALL_PERMISSIONS customer_number group_names\"," +
+                "\"access_token\":\"" + jwt(tenant, 2500) + "\"," +
+                "\"refresh_token\":\"" + jwt(tenant, 60) + "\"}").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String jwt(final int tenant, final int length) {
+        StringBuilder claims = new StringBuilder("{\"sub\":\"tenant-" + tenant + "\",\"pad\":\"");
+        while (claims.length() < length * 3 / 4) {
+            claims.append('x');
+        }
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.US_ASCII)) + "." +
+                encoder.encodeToString(claims.append("\"}").toString().getBytes(StandardCharsets.US_ASCII)) + ".sig";
+    }
+
+    /**
+     * Tokens as the original data class held them: every response field a separate string, nothing shared or decoded.
+     */
+    public static class BaselineTokens {
+        @JsonProperty("id_token")
+        private String idToken;
+
+        @JsonProperty("token_type")
+        private String tokenType;
+
+        @JsonProperty("expires_in")
+        private int expiresIn;
+
+        @JsonProperty("scope")
+        private String scope;
+
+        @JsonProperty("access_token")
+        private String accessToken;
+
+        @JsonProperty("refresh_token")
+        private String refreshToken;
+    }
+}
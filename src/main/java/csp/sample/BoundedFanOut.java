@@ -0,0 +1,88 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Runs asynchronous tasks for a list of items with a bounded number of tasks in flight.
+ */
+final class BoundedFanOut<T, R> {
+
+    private final List<T> items;
+    private final Function<T, CompletableFuture<R>> task;
+    private final AtomicReferenceArray<R> results;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Map<T, R>> done = new CompletableFuture<>();
+
+    private BoundedFanOut(@NotNull final List<T> items, @NotNull final Function<T, CompletableFuture<R>> task) {
+        this.items = items;
+        this.task = task;
+        this.results = new AtomicReferenceArray<>(items.size());
+        this.remaining = new AtomicInteger(items.size());
+    }
+
+    /**
+     * Run the task for every item, at most {@code concurrency} at a time. A failed task yields a null result.
+     *
+     * @param items       items to run the task for, duplicates are run once per occurrence
+     * @param concurrency maximum number of tasks in flight
+     * @param task        starts the task for an item
+     * @return future completed with results keyed by item in the order of the items
+     */
+    static <T, R> CompletableFuture<Map<T, R>> run(@NotNull final List<T> items, final int concurrency,
+                                                   @NotNull final Function<T, CompletableFuture<R>> task) {
+        BoundedFanOut<T, R> fanOut = new BoundedFanOut<>(new ArrayList<>(items), task);
+        if (items.isEmpty()) {
+            fanOut.done.complete(Map.of());
+        }
+        for (int i = 0; i < Math.min(concurrency, items.size()); i++) {
+            fanOut.lane();
+        }
+        return fanOut.done;
+    }
+
+    /**
+     * Start tasks one after another until one does not complete synchronously; its completion continues the lane.
+     * Looping instead of recursing keeps the stack flat when most tasks are served from the cache.
+     */
+    private void lane() {
+        int i;
+        while ((i = next.getAndIncrement()) < items.size()) {
+            CompletableFuture<R> future;
+            try {
+                future = task.apply(items.get(i));
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            if (!future.isDone()) {
+                int index = i;
+                future.whenComplete((result, e) -> {
+                    finish(index, e == null ? result : null);
+                    lane();
+                });
+                return;
+            }
+            finish(i, future.isCompletedExceptionally() ? null : future.join());
+        }
+    }
+
+    private void finish(final int index, final R result) {
+        results.set(index, result);
+        if (remaining.decrementAndGet() == 0) {
+            Map<T, R> ordered = new LinkedHashMap<>();
+            for (int i = 0; i < items.size(); i++) {
+                ordered.put(items.get(i), results.get(i));
+            }
+            done.complete(ordered);
+        }
+    }
+}
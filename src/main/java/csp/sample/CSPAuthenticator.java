@@ -0,0 +1,73 @@
+package csp.sample;
+
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * OkHttp interceptor and authenticator authorizing requests with the CSP access token of a single credential.
+ * Obtained by {@link CSPTokensProvider#authenticator(String)} and installed on a client as both:
+ * <pre>
+ * client.newBuilder().addInterceptor(authenticator).authenticator(authenticator).build();
+ * </pre>
+ * The interceptor adds the cached access token to requests without an Authorization header. On 401 to a request it
+ * authorized the authenticator refreshes the tokens, all requests rejected with the same token sharing one CSP call,
+ * and replays the request once. Requests carrying the caller's own Authorization header are left alone.
+ */
+public final class CSPAuthenticator implements Interceptor, Authenticator {
+
+    private static final String AUTHORIZATION = "Authorization";
+    static final String BEARER = "Bearer ";
+
+    private final CSPTokensProvider tokensProvider;
+
+    private final Credential credential;
+
+    CSPAuthenticator(@NotNull final CSPTokensProvider tokensProvider, @NotNull final Credential credential) {
+        this.tokensProvider = tokensProvider;
+        this.credential = credential;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header(AUTHORIZATION) != null) {
+            return chain.proceed(request);
+        }
+        String authorization = tokensProvider.authorization(credential);
+        if (authorization == null) {
+            return chain.proceed(request);
+        }
+        return chain.proceed(authorize(request, authorization));
+    }
+
+    @Nullable
+    @Override
+    public Request authenticate(@Nullable Route route, @NotNull Response response) {
+        if (response.priorResponse() != null) {
+            // Already replayed once, the new tokens were rejected too.
+            return null;
+        }
+        Request request = response.request();
+        String authorization = request.header(AUTHORIZATION);
+        if (request.tag(CSPAuthenticator.class) != this || authorization == null || !authorization.startsWith(BEARER)) {
+            // Not our token, the caller authorized the request and handles its rejection.
+            return null;
+        }
+        CSPTokens tokens = tokensProvider.refreshRejected(credential, authorization.substring(BEARER.length()));
+        return tokens == null ? null : authorize(request, BEARER + tokens.getAccessToken());
+    }
+
+    /**
+     * Add the header and tag the request, so the authenticator recognizes the requests it authorized.
+     */
+    private Request authorize(@NotNull final Request request, @NotNull final String authorization) {
+        return request.newBuilder().
+                header(AUTHORIZATION, authorization).
+                tag(CSPAuthenticator.class, this).
+                build();
+    }
+}
@@ -1,7 +1,14 @@
 package csp.sample;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Data class for CSP tokens.
@@ -28,4 +35,173 @@ public class CSPTokens {
 
     @JsonProperty("refresh_token")
     private String refreshToken;
+
+    /**
+     * Token expiry in epoch milliseconds, computed once when {@code expires_in} is read.
+     */
+    @JsonIgnore
+    private long expiresAt;
+
+    /**
+     * Claims of the access token, decoded when the tokens are read or on the first access.
+     */
+    @JsonIgnore
+    private JwtClaims claims;
+
+    /**
+     * Scopes parsed once when the tokens are read.
+     */
+    @JsonIgnore
+    private ScopeSet scopes;
+
+    public CSPTokens() {
+    }
+
+    /**
+     * Copy the type, scope and expiry of the given tokens, but none of the tokens themselves.
+     *
+     * @param tokens tokens to copy
+     */
+    CSPTokens(@NotNull final CSPTokens tokens) {
+        this.tokenType = tokens.tokenType;
+        this.expiresIn = tokens.expiresIn;
+        this.scope = tokens.scope;
+        this.expiresAt = tokens.expiresAt;
+        this.claims = tokens.getClaims();
+        this.scopes = tokens.scopes;
+    }
+
+    /**
+     * Token types and scopes repeat across all cached tokens, keep a single copy of each value.
+     */
+    @JsonProperty("token_type")
+    private void setTokenType(final String tokenType) {
+        this.tokenType = tokenType == null ? null : tokenType.intern();
+    }
+
+    @JsonProperty("scope")
+    private void setScope(final String scope) {
+        this.scope = scope == null ? null : scope.intern();
+        this.scopes = ScopeSet.parse(this.scope);
+    }
+
+    @JsonProperty("expires_in")
+    private void setExpiresIn(final int expiresIn) {
+        this.expiresIn = expiresIn;
+        this.expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresIn);
+    }
+
+    /**
+     * @param expiresAt token expiry in epoch milliseconds, for tokens restored from a snapshot
+     */
+    void setExpiresAt(final long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Decode a CSP token response without databind. Unknown fields are skipped.
+     *
+     * @param parser parser positioned before the response object
+     * @return decoded tokens
+     * @throws IOException if the response is not a JSON object or can't be read
+     */
+    static CSPTokens read(@NotNull final JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("CSP token response is not a JSON object");
+        }
+        CSPTokens tokens = new CSPTokens();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            switch (field) {
+                case "id_token":
+                    tokens.idToken = parser.getValueAsString();
+                    break;
+                case "token_type":
+                    tokens.setTokenType(parser.getValueAsString());
+                    break;
+                case "expires_in":
+                    tokens.setExpiresIn(parser.getValueAsInt());
+                    break;
+                case "scope":
+                    tokens.setScope(parser.getValueAsString());
+                    break;
+                case "access_token":
+                    tokens.accessToken = parser.getValueAsString();
+                    break;
+                case "refresh_token":
+                    tokens.refreshToken = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        tokens.claims = JwtClaims.decode(tokens.accessToken);
+        return tokens;
+    }
+
+    /**
+     * Drop the tokens which are not used, to keep cached tokens small.
+     *
+     * @param keepIdToken      whether to keep the ID token
+     * @param keepRefreshToken whether to keep the refresh token
+     * @return these tokens
+     */
+    CSPTokens project(final boolean keepIdToken, final boolean keepRefreshToken) {
+        if (!keepIdToken) {
+            this.idToken = null;
+        }
+        if (!keepRefreshToken) {
+            this.refreshToken = null;
+        }
+        return this;
+    }
+
+    /**
+     * @return claims of the access token, decoded once
+     */
+    @JsonIgnore
+    public JwtClaims getClaims() {
+        // Claims are immutable, racing readers at worst decode them twice.
+        JwtClaims decoded = claims;
+        if (decoded == null) {
+            decoded = JwtClaims.decode(getAccessToken());
+            claims = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Get a claim of the access token which is not decoded up front. Decodes the token on every call, use
+     * {@link #getClaims()} for frequently used claims.
+     *
+     * @param name claim name
+     * @return text of the claim, or null if the token has no such claim
+     */
+    public String getClaim(@NotNull final String name) {
+        return JwtClaims.claim(getAccessToken(), name);
+    }
+
+    /**
+     * @param scope scope name
+     * @return true if the tokens were granted the scope
+     */
+    public boolean hasScope(@NotNull final String scope) {
+        return scopes != null && scopes.contains(scope);
+    }
+
+    /**
+     * @param required scopes built once by {@link ScopeSet#of(String...)}
+     * @return true if the tokens were granted every required scope
+     */
+    public boolean hasAllScopes(@NotNull final ScopeSet required) {
+        return (scopes != null ? scopes : ScopeSet.EMPTY).containsAll(required);
+    }
+
+    /**
+     * @return milliseconds until the tokens expire, negative if they already did
+     */
+    public long remainingValidity() {
+        return expiresAt - System.currentTimeMillis();
+    }
 }
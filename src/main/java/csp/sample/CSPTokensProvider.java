@@ -1,16 +1,37 @@
 package csp.sample;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import okhttp3.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,18 +44,249 @@ public class CSPTokensProvider {
 
     private static final Logger LOGGER = Logger.getLogger(CSPTokensProvider.class.getName());
 
-    private static final String CSP_API_TOKEN_URL = "https://console-stg.cloud.vmware.com/csp/gateway/am/api/auth/api-tokens/authorize";
-    private static final String CSP_OAUTH_TOKEN_URL = "https://console-stg.cloud.vmware.com/csp/gateway/am/api/auth/authorize";
-
     private static final int clockSkew = 60;
     private static final int delayOnFail = 10;
+    private static final int defaultRetryAfter = 5;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final OkHttpClient cspClient = new OkHttpClient();
+    private final OkHttpClient cspClient;
+
+    private final CSPTokensProviderConfig config;
+
+    private final RefreshScheduler refreshScheduler;
+
+    private final ExecutorService refreshWorkers;
+
+    private final RefreshSpreader refreshSpreader;
+
+    private final FetchQueue fetchQueue;
+
+    private final Cache<Credential, CacheEntry> tokensCache;
+
+    private final Map<Credential, CompletableFuture<CSPTokens>> pendingFetches = new ConcurrentHashMap<>();
+
+    private final Map<Credential, FailedFetch> failedFetches;
+
+    private final Map<Credential, RefreshTask> refreshTasks = new ConcurrentHashMap<>();
+
+    private final Map<Credential, TokenHandle> tokenHandles = new ConcurrentHashMap<>();
+
+    private final TokenSnapshotStore snapshotStore;
+
+    private final ExecutorService snapshotWriter;
+
+    private final TokenArena tokenArena;
+
+    private final Map<String, CacheEntry> restoredTokens = new ConcurrentHashMap<>();
+
+    private final Set<Credential> registeredCredentials = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Credentials whose refresh_token grant failed, refreshed by the credential grant until they leave the cache.
+     */
+    private final Set<Credential> refreshGrantFailures = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, LatencyTracker> fetchLatencies = new ConcurrentHashMap<>();
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    private final LongAdder refreshTokenGrants = new LongAdder();
+
+    private final LongAdder credentialGrants = new LongAdder();
+
+    private final LongAdder refreshTokenFallbacks = new LongAdder();
+
+    public CSPTokensProvider() {
+        this(CSPTokensProviderConfig.builder().build());
+    }
 
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    public CSPTokensProvider(@NotNull final CSPTokensProviderConfig config) {
+        this(config, new OkHttpClient());
+    }
+
+    /**
+     * @param config    provider configuration
+     * @param cspClient client calling CSP, tests pass one answering from an interceptor
+     */
+    CSPTokensProvider(@NotNull final CSPTokensProviderConfig config, @NotNull final OkHttpClient cspClient) {
+        this.config = config;
+        this.cspClient = cspClient;
+        // Cold reads run on the OkHttp dispatcher, whose default of 5 requests per host would serialize a cold start.
+        cspClient.dispatcher().setMaxRequests(config.getMaxConcurrentFetches());
+        cspClient.dispatcher().setMaxRequestsPerHost(config.getMaxConcurrentFetches());
+        this.refreshScheduler = config.getSchedulerType() == CSPTokensProviderConfig.SchedulerType.TIMING_WHEEL ?
+                new HashedWheelRefreshScheduler(config.getWheelTick().toNanos(), config.getWheelSize()) :
+                new ExecutorRefreshScheduler();
+        this.refreshSpreader = new RefreshSpreader(config.getRefreshJitter().toSeconds());
+        this.fetchQueue = new FetchQueue(new RateLimiter(config.getFetchRateLimit(), config.getFetchBurst()));
+        AtomicInteger workerCount = new AtomicInteger();
+        this.refreshWorkers = Executors.newFixedThreadPool(config.getRefreshThreads(), task -> {
+            Thread worker = new Thread(task, "csp-refresh-" + workerCount.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        this.tokensCache = Caffeine.newBuilder().
+                maximumSize(config.getMaxCachedKeys()).
+                expireAfter(new IdleExpiry(config.getIdleExpiry().toNanos())).
+                evictionListener((Credential credential, CacheEntry entry, RemovalCause cause) -> onEvicted(credential, entry)).
+                recordStats().
+                build();
+
+        // Credentials which never succeed are never cached nor evicted, so their backoff has to expire by itself.
+        // It outlives the longest backoff, so a credential failing on every retry keeps escalating.
+        this.failedFetches = Caffeine.newBuilder().
+                maximumSize(config.getMaxCachedKeys()).
+                expireAfterWrite(config.getMaxFailureBackoff().multipliedBy(2)).
+                <Credential, FailedFetch>build().
+                asMap();
+
+        this.tokenArena = config.getOffHeapSlots() == 0 ? null :
+                new TokenArena(config.getOffHeapSlots(), config.getOffHeapSlotSize());
+        this.snapshotStore = config.getSnapshotFile() == null ? null :
+                new TokenSnapshotStore(config.getSnapshotFile(), objectMapper);
+        // Appends hash the key and write to disk, keep them off the OkHttp threads completing the fetches.
+        this.snapshotWriter = snapshotStore == null ? null : Executors.newSingleThreadExecutor(task -> {
+            Thread writer = new Thread(task, "csp-snapshot");
+            writer.setDaemon(true);
+            return writer;
+        });
+        if (snapshotStore != null) {
+            restoreTokens(snapshotStore.load());
+        }
+    }
+
+    /**
+     * @return number of credentials evicted from the cache because of its size or idle limits
+     */
+    public long getEvictionCount() {
+        return tokensCache.stats().evictionCount();
+    }
+
+    /**
+     * @return number of cached tokens whose JWTs are kept off-heap, including replaced ones not expired yet
+     */
+    public int getOffHeapSlotsInUse() {
+        return tokenArena != null ? tokenArena.usedSlots() : 0;
+    }
+
+    /**
+     * Report of how scheduled refreshes are spread over time.
+     *
+     * @return number of planned refreshes keyed by seconds from now
+     */
+    public SortedMap<Long, Long> getRefreshDistribution() {
+        return refreshSpreader.distribution();
+    }
+
+    /**
+     * @return number of CSP fetches waiting for the rate limiter
+     */
+    public int getFetchQueueDepth() {
+        return fetchQueue.getQueueDepth();
+    }
+
+    /**
+     * @return number of CSP fetches admitted by the rate limiter so far
+     */
+    public long getAdmittedFetchCount() {
+        return fetchQueue.getAdmittedCount();
+    }
+
+    /**
+     * @return number of CSP fetches which had to wait for the rate limiter so far
+     */
+    public long getDelayedFetchCount() {
+        return fetchQueue.getDelayedCount();
+    }
+
+    /**
+     * @return number of scheduled refreshes done by the refresh_token grant
+     */
+    public long getRefreshTokenGrantCount() {
+        return refreshTokenGrants.sum();
+    }
+
+    /**
+     * @return number of scheduled refreshes done by the API token or OAuth app credentials
+     */
+    public long getCredentialGrantCount() {
+        return credentialGrants.sum();
+    }
+
+    /**
+     * @return number of scheduled refreshes which fell back to the credential after the refresh_token grant failed
+     */
+    public long getRefreshTokenFallbackCount() {
+        return refreshTokenFallbacks.sum();
+    }
+
+    /**
+     * Get a reusable key of user's API token, meant to be obtained once and passed to every lookup.
+     *
+     * @param apiToken User's API token
+     * @return key of the API token
+     */
+    public CredentialKey credentialKey(@NotNull final String apiToken) {
+        return new CredentialKey(Credential.apiToken(apiToken));
+    }
+
+    /**
+     * Get a reusable key of OAuth app credentials, meant to be obtained once and passed to every lookup.
+     *
+     * @param appId     OAuth app ID
+     * @param appSecret OAuth app secret
+     * @param orgId     CSP organization ID
+     * @return key of the OAuth app credentials
+     */
+    public CredentialKey credentialKey(@NotNull final String appId,
+                                       @NotNull final String appSecret,
+                                       @Nullable final String orgId) {
+        return new CredentialKey(Credential.oauthApp(appId, appSecret, orgId));
+    }
+
+    /**
+     * Get access token by a credential key.
+     *
+     * @param key key obtained by {@link #credentialKey(String)}
+     * @return csp tokens or null if there are no tokens and getting a new one failed
+     */
+    public CSPTokens getToken(@NotNull final CredentialKey key) {
+        return getTokenAsync(key.credential).join();
+    }
+
+    /**
+     * Get access token by a credential key, waiting at most the given time for a fetch.
+     *
+     * @param key     key obtained by {@link #credentialKey(String)}
+     * @param timeout maximum time to wait for CSP
+     * @return fresh or cached csp tokens, or no tokens if fetching failed or took longer than the timeout
+     */
+    public TokenResult getToken(@NotNull final CredentialKey key, @NotNull final Duration timeout) {
+        return getToken(key.credential, timeout);
+    }
+
+    /**
+     * Get access token by a credential key which stays valid for at least the given time, fetching new tokens
+     * right away if the cached ones expire sooner.
+     *
+     * @param key                  key obtained by {@link #credentialKey(String)}
+     * @param minRemainingValidity time the tokens must stay valid for
+     * @return csp tokens, or null if getting a new one failed; tokens whose whole lifetime is shorter than
+     * requested are returned as fetched
+     */
+    public CSPTokens getTokenValidFor(@NotNull final CredentialKey key, @NotNull final Duration minRemainingValidity) {
+        return getTokenValidFor(key.credential, minRemainingValidity);
+    }
 
-    private final Map<String, CSPTokens> tokensCache = new ConcurrentHashMap<>();
+    /**
+     * Get access token by a credential key without blocking the caller.
+     *
+     * @param key key obtained by {@link #credentialKey(String)}
+     * @return future completed with csp tokens, or with null if getting a new one failed
+     */
+    public CompletableFuture<CSPTokens> getTokenAsync(@NotNull final CredentialKey key) {
+        return getTokenAsync(key.credential);
+    }
 
     /**
      * Get access token by user's API token.
@@ -43,13 +295,7 @@ public class CSPTokensProvider {
      * @return csp tokens or null if there are no tokens and getting a new one failed
      */
     public CSPTokens getToken(@NotNull String apiToken) {
-        return tokensCache.computeIfAbsent(apiToken,
-                key -> {
-                    CSPTokens tokens = fetchTokens(apiToken);
-                    int delay = tokens == null ? delayOnFail : tokens.getExpiresIn() - clockSkew;
-                    scheduleTokenUpdate(apiToken, delay);
-                    return tokens;
-                });
+        return getTokenAsync(apiToken).join();
     }
 
     /**
@@ -63,116 +309,896 @@ public class CSPTokensProvider {
     public CSPTokens getToken(@NotNull final String appId,
                               @NotNull final String appSecret,
                               @Nullable final String orgId) {
-        return tokensCache.computeIfAbsent(appId,
-                key -> {
-                    CSPTokens tokens = fetchTokens(appId, appSecret, orgId);
-                    int delay = tokens == null ? delayOnFail : tokens.getExpiresIn() - clockSkew;
-                    scheduleTokenUpdate(appId, appSecret, orgId, delay);
-                    return tokens;
-                });
+        return getTokenAsync(appId, appSecret, orgId).join();
     }
 
     /**
-     * Schedule a task to update access token for given API token.
+     * Get access token by user's API token, waiting at most the given time for a fetch.
      *
      * @param apiToken User's API token
-     * @param delay    delay in seconds to run the task
+     * @param timeout  maximum time to wait for CSP
+     * @return fresh or cached csp tokens, or no tokens if fetching failed or took longer than the timeout
      */
-    private void scheduleTokenUpdate(@NotNull final String apiToken, final int delay) {
-        executor.schedule(() -> {
-            CSPTokens tokens = fetchTokens(apiToken);
-            int dly = delayOnFail;
-            if (tokens != null) {
-                tokensCache.put(apiToken, tokens);
-                dly = tokens.getExpiresIn() - clockSkew;
-            }
-            scheduleTokenUpdate(apiToken, dly);
-        }, delay, TimeUnit.SECONDS);
+    public TokenResult getToken(@NotNull final String apiToken, @NotNull final Duration timeout) {
+        return getToken(Credential.apiToken(apiToken), timeout);
     }
 
     /**
-     * Schedule a task to update access token for given OAuth app credentials.
+     * Get access token by OAuth app credentials, waiting at most the given time for a fetch.
      *
      * @param appId     OAuth app ID
      * @param appSecret OAuth app secret
      * @param orgId     CSP organization ID
-     * @param delay     delay in seconds to run the task
-     */
-    private void scheduleTokenUpdate(@NotNull final String appId,
-                                     @NotNull final String appSecret,
-                                     @Nullable final String orgId,
-                                     final int delay) {
-        executor.schedule(() -> {
-            CSPTokens tokens = fetchTokens(appId, appSecret, orgId);
-            int dly = delayOnFail;
-            if (tokens != null) {
-                tokensCache.put(appId, tokens);
-                dly = tokens.getExpiresIn() - clockSkew;
-            }
-            scheduleTokenUpdate(appId, appSecret, orgId, dly);
-        }, delay, TimeUnit.SECONDS);
+     * @param timeout   maximum time to wait for CSP
+     * @return fresh or cached csp tokens, or no tokens if fetching failed or took longer than the timeout
+     */
+    public TokenResult getToken(@NotNull final String appId,
+                                @NotNull final String appSecret,
+                                @Nullable final String orgId,
+                                @NotNull final Duration timeout) {
+        return getToken(Credential.oauthApp(appId, appSecret, orgId), timeout);
     }
 
     /**
-     * Method to get CSP access token using CSP API token.
-     * <a href="https://console-stg.cloud.vmware.com/csp/gateway/authn/api/swagger-ui.html#/Authentication/getAccessTokenByApiRefreshTokenUsingPOST">...</a>
+     * Get access token by user's API token which stays valid for at least the given time, fetching new tokens
+     * right away if the cached ones expire sooner.
      *
-     * @param apiToken user's API token
-     * @return CSP tokens, or null if something failed
+     * @param apiToken             User's API token
+     * @param minRemainingValidity time the tokens must stay valid for
+     * @return csp tokens, or null if getting a new one failed; tokens whose whole lifetime is shorter than
+     * requested are returned as fetched
      */
-    private CSPTokens fetchTokens(@NotNull final String apiToken) {
-        LOGGER.info("Fetching tokens by API token");
+    public CSPTokens getTokenValidFor(@NotNull final String apiToken, @NotNull final Duration minRemainingValidity) {
+        return getTokenValidFor(Credential.apiToken(apiToken), minRemainingValidity);
+    }
 
-        Request request = new Request.Builder().
-                url(CSP_API_TOKEN_URL).
-                post(new FormBody(List.of("api_token"), List.of(apiToken))).
-                build();
+    /**
+     * Get access token by OAuth app credentials which stays valid for at least the given time, fetching new tokens
+     * right away if the cached ones expire sooner.
+     *
+     * @param appId                OAuth app ID
+     * @param appSecret            OAuth app secret
+     * @param orgId                CSP organization ID
+     * @param minRemainingValidity time the tokens must stay valid for
+     * @return csp tokens, or null if getting a new one failed; tokens whose whole lifetime is shorter than
+     * requested are returned as fetched
+     */
+    public CSPTokens getTokenValidFor(@NotNull final String appId,
+                                      @NotNull final String appSecret,
+                                      @Nullable final String orgId,
+                                      @NotNull final Duration minRemainingValidity) {
+        return getTokenValidFor(Credential.oauthApp(appId, appSecret, orgId), minRemainingValidity);
+    }
 
-        return requestTokens(request);
+    /**
+     * Get access token by user's API token without blocking the caller.
+     * Concurrent calls for the same API token share a single fetch.
+     *
+     * @param apiToken User's API token
+     * @return future completed with csp tokens, or with null if getting a new one failed
+     */
+    public CompletableFuture<CSPTokens> getTokenAsync(@NotNull final String apiToken) {
+        return getTokenAsync(Credential.apiToken(apiToken));
     }
 
     /**
-     * Method to get CSP access token using CSP server-to-server OAuth app credentials.
-     * <a href="https://console-stg.cloud.vmware.com/csp/gateway/authn/api/swagger-ui.html#/Authentication/getTokenForAuthGrantTypeInternalUsingPOST">...</a>
+     * Get access token by OAuth app credentials without blocking the caller.
+     * Concurrent calls for the same app share a single fetch.
      *
      * @param appId     OAuth app ID
      * @param appSecret OAuth app secret
-     * @param orgId     CSP org ID
-     * @return CSP tokens, or null if something failed
-     */
-    private CSPTokens fetchTokens(@NotNull final String appId, @NotNull final String appSecret,
-                                  @Nullable final String orgId) {
-        LOGGER.info("Fetching tokens by by OAuth app credentials");
-
-        String credentials = Credentials.basic(appId, appSecret);
-        FormBody body = orgId == null ?
-                new FormBody(List.of("grant_type"), List.of("client_credentials")) :
-                new FormBody(List.of("grant_type", "orgId"), List.of("client_credentials", orgId));
-        Request request = new Request.Builder().
-                url(CSP_OAUTH_TOKEN_URL).
-                post(body).
-                header("Authorization", credentials).
-                build();
+     * @param orgId     CSP organization ID
+     * @return future completed with csp tokens, or with null if getting a new one failed
+     */
+    public CompletableFuture<CSPTokens> getTokenAsync(@NotNull final String appId,
+                                                      @NotNull final String appSecret,
+                                                      @Nullable final String orgId) {
+        return getTokenAsync(Credential.oauthApp(appId, appSecret, orgId));
+    }
 
-        return requestTokens(request);
+    /**
+     * Get access tokens of an OAuth app in several orgs without blocking the caller. Tokens are fetched in parallel,
+     * at most {@link CSPTokensProviderConfig#getWarmUpConcurrency()} at a time, and cached per org.
+     *
+     * @param appId     OAuth app ID
+     * @param appSecret OAuth app secret
+     * @param orgIds    CSP organization IDs
+     * @return future completed when every org was tried, with csp tokens keyed by org ID, or null where getting them
+     * failed
+     */
+    public CompletableFuture<Map<String, CSPTokens>> getTokensAsync(@NotNull final String appId,
+                                                                    @NotNull final String appSecret,
+                                                                    @NotNull final List<String> orgIds) {
+        return BoundedFanOut.run(orgIds, config.getWarmUpConcurrency(),
+                orgId -> getTokenAsync(Credential.oauthApp(appId, appSecret, orgId)));
+    }
+
+    /**
+     * Get an OkHttp interceptor and authenticator authorizing requests with the tokens of user's API token.
+     *
+     * @param apiToken User's API token
+     * @return authenticator to install on OkHttp clients
+     */
+    public CSPAuthenticator authenticator(@NotNull final String apiToken) {
+        return new CSPAuthenticator(this, Credential.apiToken(apiToken));
+    }
+
+    /**
+     * Get an OkHttp interceptor and authenticator authorizing requests with the tokens of OAuth app credentials.
+     *
+     * @param appId     OAuth app ID
+     * @param appSecret OAuth app secret
+     * @param orgId     CSP organization ID
+     * @return authenticator to install on OkHttp clients
+     */
+    public CSPAuthenticator authenticator(@NotNull final String appId,
+                                          @NotNull final String appSecret,
+                                          @Nullable final String orgId) {
+        return new CSPAuthenticator(this, Credential.oauthApp(appId, appSecret, orgId));
+    }
+
+    /**
+     * Register user's API token to be fetched by {@link #warmUp()}.
+     *
+     * @param apiToken User's API token
+     */
+    public void register(@NotNull final String apiToken) {
+        register(Credential.apiToken(apiToken));
     }
 
-    private CSPTokens requestTokens(@NotNull Request request) {
+    /**
+     * Register user's API tokens to be fetched by {@link #warmUp()}.
+     *
+     * @param apiTokens User's API tokens
+     */
+    public void registerAll(@NotNull final Collection<String> apiTokens) {
+        apiTokens.forEach(this::register);
+    }
+
+    /**
+     * Register OAuth app credentials to be fetched by {@link #warmUp()}.
+     *
+     * @param appId     OAuth app ID
+     * @param appSecret OAuth app secret
+     * @param orgId     CSP organization ID
+     */
+    public void register(@NotNull final String appId,
+                         @NotNull final String appSecret,
+                         @Nullable final String orgId) {
+        register(Credential.oauthApp(appId, appSecret, orgId));
+    }
+
+    /**
+     * Register OAuth app credentials in several orgs to be fetched by {@link #warmUp()}.
+     *
+     * @param appId     OAuth app ID
+     * @param appSecret OAuth app secret
+     * @param orgIds    CSP organization IDs
+     */
+    public void registerAll(@NotNull final String appId,
+                            @NotNull final String appSecret,
+                            @NotNull final Collection<String> orgIds) {
+        orgIds.forEach(orgId -> register(appId, appSecret, orgId));
+    }
+
+    private void register(@NotNull final Credential credential) {
+        registeredCredentials.add(credential);
+    }
+
+    /**
+     * Fetch tokens of all registered credentials in parallel, at most
+     * {@link CSPTokensProviderConfig#getWarmUpConcurrency()} at a time.
+     * Credentials with cached or restored tokens complete without a CSP call.
+     *
+     * @return future completed when every credential was tried, with fetch success keyed by
+     * {@link CredentialKey#getId()}, which never contains a secret
+     */
+    public CompletableFuture<Map<String, Boolean>> warmUp() {
+        List<Credential> registered = new ArrayList<>(registeredCredentials);
+        return BoundedFanOut.run(registered, config.getWarmUpConcurrency(),
+                credential -> getTokenAsync(credential).thenApply(tokens -> tokens != null)).
+                thenApply(results -> {
+                    Map<String, Boolean> successes = new LinkedHashMap<>();
+                    results.forEach((credential, success) ->
+                            successes.merge(credential.id(), Boolean.TRUE.equals(success), Boolean::logicalAnd));
+                    long failed = successes.values().stream().filter(success -> !success).count();
+                    LOGGER.info("Warmed up " + (successes.size() - failed) + " of " + successes.size() + " credential(s)");
+                    return successes;
+                });
+    }
+
+    /**
+     * Get a handle to the tokens of user's API token, meant to be obtained once and read on every request.
+     *
+     * @param apiToken User's API token
+     * @return handle kept up to date by the refresh task
+     */
+    public TokenHandle getTokenHandle(@NotNull final String apiToken) {
+        return getTokenHandle(Credential.apiToken(apiToken));
+    }
+
+    /**
+     * Get a handle to the tokens of OAuth app credentials, meant to be obtained once and read on every request.
+     *
+     * @param appId     OAuth app ID
+     * @param appSecret OAuth app secret
+     * @param orgId     CSP organization ID
+     * @return handle kept up to date by the refresh task
+     */
+    public TokenHandle getTokenHandle(@NotNull final String appId,
+                                      @NotNull final String appSecret,
+                                      @Nullable final String orgId) {
+        return getTokenHandle(Credential.oauthApp(appId, appSecret, orgId));
+    }
+
+    /**
+     * Register a handle for the credential and fill it from the cache. Keys with handles are never evicted for being
+     * idle, since handle reads do not touch the cache.
+     *
+     * @param credential credential to fetch tokens with
+     * @return handle of the credential
+     */
+    private TokenHandle getTokenHandle(@NotNull final Credential credential) {
+        TokenHandle handle = tokenHandles.computeIfAbsent(credential,
+                c -> new TokenHandle(() -> getTokenAsync(credential).join()));
+        CacheEntry entry = cachedEntry(credential);
+        if (entry != null) {
+            handle.update(entry);
+            startTokenUpdate(credential, entry);
+        }
+        return handle;
+    }
+
+    /**
+     * Wait for tokens at most the given time. The fetch is shared with other callers and is not cancelled on timeout.
+     *
+     * @param credential credential to fetch tokens with
+     * @param timeout    maximum time to wait for CSP
+     * @return fresh or cached csp tokens, or no tokens
+     */
+    private TokenResult getToken(@NotNull final Credential credential, @NotNull final Duration timeout) {
+        CompletableFuture<CSPTokens> future = getTokenAsync(credential);
+        if (future.isDone()) {
+            CSPTokens tokens = future.getNow(null);
+            return tokens == null ? TokenResult.none() : TokenResult.cached(tokens);
+        }
         try {
-            Response response = cspClient.newCall(request).execute();
-            ResponseBody responseBody = response.body();
+            CSPTokens tokens = future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return tokens == null ? TokenResult.none() : TokenResult.fresh(tokens);
+        } catch (TimeoutException | ExecutionException e) {
+            return TokenResult.none();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TokenResult.none();
+        }
+    }
+
+    /**
+     * Serve cached tokens if they are usable for the given time, otherwise wait for a fetch shared with other callers.
+     * Tokens fetched less than {@link CSPTokensProviderConfig#getMinForcedRefreshInterval()} ago are served anyway:
+     * they fall short only when their lifetime is shorter than the requested validity, which new tokens wouldn't fix.
+     *
+     * @param credential           credential to fetch tokens with
+     * @param minRemainingValidity time before hard expiry the tokens must be usable for
+     * @return csp tokens or null
+     */
+    private CSPTokens getTokenValidFor(@NotNull final Credential credential,
+                                       @NotNull final Duration minRemainingValidity) {
+        long now = System.nanoTime();
+        long validUntil = now + minRemainingValidity.toNanos();
+        CacheEntry entry = cachedEntry(credential);
+        if (entry != null && !entry.isHardExpired(now) &&
+                (entry.hardExpiry - validUntil >= 0 || fetchedRecently(entry, now))) {
+            return entry.tokens;
+        }
+        return fetchOnce(credential, validUntil).join();
+    }
+
+    /**
+     * Serve tokens from the cache, fetching them when missing or past hard expiry.
+     * In {@link CSPTokensProviderConfig.RefreshMode#STALE_WHILE_REVALIDATE} mode tokens past soft expiry are
+     * still returned while a background refresh runs.
+     *
+     * @param credential credential to fetch tokens with
+     * @return future completed with csp tokens, or with null if getting a new one failed
+     */
+    CompletableFuture<CSPTokens> getTokenAsync(@NotNull final Credential credential) {
+        boolean revalidate = config.getRefreshMode() == CSPTokensProviderConfig.RefreshMode.STALE_WHILE_REVALIDATE;
+        CacheEntry entry = cachedEntry(credential);
+        long now = System.nanoTime();
+        if (entry != null && !entry.isHardExpired(now)) {
+            if (revalidate && now - entry.softExpiry >= 0) {
+                fetchOnce(credential);
+            }
+            return CompletableFuture.completedFuture(entry.tokens);
+        }
+
+        CompletableFuture<CSPTokens> fetch = fetchOnce(credential);
+        if (entry != null && revalidate) {
+            // Never hand out the dead token, but don't let the caller wait for a slow CSP forever either.
+            return fetch.copy().completeOnTimeout(null, config.getHardExpiryWait().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return fetch;
+    }
+
+    /**
+     * Get the Authorization header value for the tokens of the credential. Tokens within their soft expiry are served
+     * with the header cached on their entry, anything else takes the {@link #getTokenAsync(Credential)} path.
+     *
+     * @param credential credential to fetch tokens with
+     * @return Authorization header value, or null if getting tokens failed
+     */
+    String authorization(@NotNull final Credential credential) {
+        CacheEntry entry = cachedEntry(credential);
+        if (entry != null && System.nanoTime() - entry.softExpiry < 0) {
+            String header = entry.authorization();
+            if (header != null) {
+                return header;
+            }
+        }
+        CSPTokens tokens = getTokenAsync(credential).join();
+        return tokens == null ? null : CSPAuthenticator.BEARER + tokens.getAccessToken();
+    }
+
+    /**
+     * Get new tokens after a server rejected the given access token. The rejected tokens are dropped from the cache,
+     * so every caller rejected with them waits for the same fetch, and callers arriving after it finished get the
+     * new tokens without another CSP call. Tokens younger than
+     * {@link CSPTokensProviderConfig#getMinForcedRefreshInterval()} are kept, so a server rejecting every token, e.g.
+     * for missing permissions, can't make each request spend a CSP call.
+     *
+     * @param credential          credential to fetch tokens with
+     * @param rejectedAccessToken access token the server rejected, or null if the request had none
+     * @return new csp tokens, or null if getting them failed or the rejected tokens are too young to be replaced
+     */
+    CSPTokens refreshRejected(@NotNull final Credential credential, @Nullable final String rejectedAccessToken) {
+        CacheEntry entry = tokensCache.getIfPresent(credential);
+        long now = System.nanoTime();
+        if (entry != null && !entry.isHardExpired(now)) {
+            if (!entry.tokens.getAccessToken().equals(rejectedAccessToken)) {
+                return entry.tokens;
+            }
+            if (fetchedRecently(entry, now)) {
+                LOGGER.fine("Rejected tokens were fetched just now, not refreshing them");
+                return null;
+            }
+            if (tokensCache.asMap().remove(credential, entry)) {
+                releaseAtExpiry(entry);
+            }
+        }
+        return fetchOnce(credential).join();
+    }
+
+    /**
+     * Get cached tokens of the credential, adopting tokens restored from the snapshot on the first access.
+     *
+     * @param credential credential to fetch tokens with
+     * @return cached tokens or null
+     */
+    private CacheEntry cachedEntry(@NotNull final Credential credential) {
+        CacheEntry entry = tokensCache.getIfPresent(credential);
+        if (entry != null || restoredTokens.isEmpty()) {
+            return entry;
+        }
+
+        CacheEntry restored = restoredTokens.remove(TokenSnapshotStore.fingerprint(credential.key()));
+        if (restored == null || restored.isHardExpired(System.nanoTime())) {
+            return null;
+        }
+        tokensCache.put(credential, restored);
+        if (config.getRefreshMode() != CSPTokensProviderConfig.RefreshMode.STALE_WHILE_REVALIDATE) {
+            startTokenUpdate(credential, restored);
+        }
+        return restored;
+    }
+
+    /**
+     * Start the refresh chain of a credential with cached tokens unless it already runs.
+     *
+     * @param credential credential to fetch tokens with
+     * @param entry      cached tokens
+     */
+    private void startTokenUpdate(@NotNull final Credential credential, @NotNull final CacheEntry entry) {
+        refreshTasks.computeIfAbsent(credential,
+                c -> scheduleTokenUpdate(credential, refreshDeadline(credential, entry)));
+    }
+
+    /**
+     * Refresh deadline leaving enough time before hard expiry for a slow fetch and its retries: a multiple of the
+     * endpoint's p99 fetch latency plus the retry budget. Until the endpoint has latency samples, tokens are
+     * refreshed {@code clockSkew} seconds before they expire. In {@link CSPTokensProviderConfig.RefreshMode#ROTATING}
+     * mode the refresh additionally runs the rotation overlap earlier.
+     *
+     * @param credential credential to fetch tokens with
+     * @param entry      cached tokens
+     * @return {@link System#nanoTime()} when the tokens should be refreshed
+     */
+    private long refreshDeadline(@NotNull final Credential credential, @NotNull final CacheEntry entry) {
+        long p99 = fetchLatency(credential).p99();
+        long deadline = p99 < 0 ?
+                entry.expiry - TimeUnit.SECONDS.toNanos(clockSkew) :
+                entry.hardExpiry - (long) (p99 * config.getLatencyMultiple()) - config.getRefreshRetryBudget().toNanos();
+        if (config.getRefreshMode() == CSPTokensProviderConfig.RefreshMode.ROTATING) {
+            deadline -= config.getRotationOverlap().toNanos();
+        }
+        // Never spend more than half of the token lifetime waiting for a refresh.
+        return Math.max(deadline, entry.fetchedAt + (entry.expiry - entry.fetchedAt) / 2);
+    }
+
+    private LatencyTracker fetchLatency(@NotNull final Credential credential) {
+        return fetchLatency(credential.endpoint());
+    }
+
+    private LatencyTracker fetchLatency(@NotNull final String endpoint) {
+        return fetchLatencies.computeIfAbsent(endpoint, e -> new LatencyTracker());
+    }
+
+    private CircuitBreaker circuitBreaker(@NotNull final String endpoint) {
+        return circuitBreakers.computeIfAbsent(endpoint, e -> new CircuitBreaker(endpoint,
+                config.getBreakerFailureThreshold(), config.getBreakerOpenDuration().toNanos(),
+                config.getBreakerRampUp().toNanos()));
+    }
+
+    /**
+     * Keep tokens loaded from the snapshot until their credentials are used for the first time or the tokens expire.
+     * Unused tokens are dropped at their hard expiry, so once all are gone cache misses stop hashing credentials.
+     *
+     * @param records restored tokens keyed by credential fingerprint
+     */
+    private void restoreTokens(@NotNull final Map<String, TokenSnapshotStore.Record> records) {
+        long now = System.nanoTime();
+        long wallNow = System.currentTimeMillis();
+        records.forEach((fingerprint, record) -> {
+            long expiry = now + TimeUnit.MILLISECONDS.toNanos(record.expiresAt - wallNow);
+            CacheEntry entry = new CacheEntry(record.tokens, expiry,
+                    config.getSoftExpiryLead().toNanos(), config.getHardExpiryLead().toNanos());
+            if (!entry.isHardExpired(now)) {
+                restoredTokens.put(fingerprint, entry);
+                refreshScheduler.schedule(() -> restoredTokens.remove(fingerprint, entry),
+                        entry.hardExpiry - now, TimeUnit.NANOSECONDS);
+            }
+        });
+        LOGGER.info("Restored " + restoredTokens.size() + " token(s) from snapshot");
+    }
+
+    /**
+     * Start a fetch for the given cache key unless one is already in flight or the key is backing off after failures.
+     * The pending future is registered before the fetch starts, so the HTTP call never runs under a map lock.
+     * The first successful fetch of a key starts its refresh chain, no matter how many callers arrive later.
+     * Keys with a {@link TokenHandle} get a refresh chain in every refresh mode, as handle reads never trigger fetches.
+     *
+     * @param credential credential to fetch tokens with
+     * @return future shared by all callers waiting for this key
+     */
+    private CompletableFuture<CSPTokens> fetchOnce(@NotNull final Credential credential) {
+        return fetchOnce(credential, System.nanoTime());
+    }
+
+    /**
+     * Start a fetch unless one is already in flight, or the cached tokens are before soft expiry and usable until
+     * the given time, or they were fetched just now.
+     *
+     * @param credential credential to fetch tokens with
+     * @param validUntil {@link System#nanoTime()} until which cached tokens must stay before hard expiry
+     * @return future shared by all callers waiting for this key
+     */
+    private CompletableFuture<CSPTokens> fetchOnce(@NotNull final Credential credential, final long validUntil) {
+        FailedFetch failed = failedFetches.get(credential);
+        if (failed != null && System.nanoTime() - failed.retryAt < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<CSPTokens> created = new CompletableFuture<>();
+        CompletableFuture<CSPTokens> pending = pendingFetches.putIfAbsent(credential, created);
+        if (pending != null) {
+            return pending;
+        }
+
+        // The previous fetch may have finished between the cache miss and the registration above.
+        CacheEntry cached = tokensCache.getIfPresent(credential);
+        long now = System.nanoTime();
+        if (cached != null && !cached.isHardExpired(now) &&
+                (now - cached.softExpiry < 0 && cached.hardExpiry - validUntil >= 0 || fetchedRecently(cached, now))) {
+            pendingFetches.remove(credential, created);
+            created.complete(cached.tokens);
+            return created;
+        }
+
+        boolean scheduled = config.getRefreshMode() != CSPTokensProviderConfig.RefreshMode.STALE_WHILE_REVALIDATE;
+        long deadline = cached != null ? cached.hardExpiry : System.nanoTime();
+        requestTokensAsync(credential, deadline).whenComplete((tokens, e) -> {
+            try {
+                long next = onFetched(credential, tokens);
+                if ((scheduled || tokenHandles.containsKey(credential)) && tokens != null) {
+                    refreshTasks.computeIfAbsent(credential, c -> scheduleTokenUpdate(credential, next));
+                }
+            } finally {
+                // Whatever failed above, release the waiters and let the next caller fetch again.
+                pendingFetches.remove(credential, created);
+                created.complete(tokens);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * @param entry cached tokens
+     * @param now   {@link System#nanoTime()}
+     * @return whether the tokens are too young to be replaced before they expire
+     */
+    private boolean fetchedRecently(@NotNull final CacheEntry entry, final long now) {
+        return now - entry.fetchedAt < config.getMinForcedRefreshInterval().toNanos();
+    }
+
+    /**
+     * Store fetch result: successful tokens go to the cache, failures extend the backoff of the key.
+     * With an off-heap arena, the JWTs are moved there.
+     *
+     * @param credential credential the tokens were fetched with
+     * @param tokens     fetched tokens, or null if the fetch failed
+     * @return {@link System#nanoTime()} of the next refresh of the credential
+     */
+    private long onFetched(@NotNull final Credential credential, @Nullable final CSPTokens tokens) {
+        TokenHandle handle = tokenHandles.get(credential);
+        if (tokens != null) {
+            CacheEntry entry = new CacheEntry(tokenArena != null ? tokenArena.store(tokens) : tokens,
+                    config.getSoftExpiryLead().toNanos(), config.getHardExpiryLead().toNanos());
+            CacheEntry replaced = tokensCache.asMap().put(credential, entry);
+            if (replaced != null) {
+                releaseAtExpiry(replaced);
+            }
+            if (handle != null) {
+                handle.update(entry);
+            }
+            if (snapshotStore != null) {
+                snapshotWriter.execute(() -> snapshotStore.append(TokenSnapshotStore.fingerprint(credential.key()),
+                        tokens, tokens.getExpiresAt()));
+            }
+            failedFetches.remove(credential);
+            return refreshDeadline(credential, entry);
+        }
+        if (handle != null) {
+            handle.clearIfExpired(System.nanoTime());
+        }
+        FailedFetch failed = failedFetches.merge(credential, new FailedFetch(1),
+                (previous, ignored) -> new FailedFetch(previous.failures + 1));
+        LOGGER.warning("Fetching tokens failed " + failed.failures + " time(s) in a row, next attempt in "
+                + failed.delay + " seconds");
+        return failed.retryAt;
+    }
+
+    /**
+     * Schedule a task to update access token for given credential.
+     * The timer only hands the task over to the refresh workers, so it never blocks on the HTTP call. A worker waits
+     * for its refresh to finish, so at most {@link CSPTokensProviderConfig#getRefreshThreads()} refreshes are in
+     * flight. The deadline is moved earlier by a jitter to spread refreshes of keys fetched together.
+     *
+     * @param credential credential to fetch tokens with
+     * @param deadline   planned {@link System#nanoTime()} to run the task
+     * @return scheduled task, to be published in {@link #refreshTasks} by the caller
+     */
+    private RefreshTask scheduleTokenUpdate(@NotNull final Credential credential, final long deadline) {
+        long delay = refreshSpreader.spread(deadline) - System.nanoTime();
+        RefreshTask task = new RefreshTask(credential);
+        task.timer = refreshScheduler.schedule(task, delay, TimeUnit.NANOSECONDS);
+        return task;
+    }
+
+    /**
+     * Stop refreshing tokens of an evicted credential. Its handle, if any, loads the tokens again on the next read.
+     *
+     * @param credential evicted credential
+     * @param entry      evicted tokens
+     */
+    private void onEvicted(@NotNull final Credential credential, @NotNull final CacheEntry entry) {
+        releaseAtExpiry(entry);
+        RefreshTask task = refreshTasks.remove(credential);
+        if (task != null) {
+            task.cancel();
+        }
+        failedFetches.remove(credential);
+        refreshGrantFailures.remove(credential);
+        TokenHandle handle = tokenHandles.get(credential);
+        if (handle != null) {
+            handle.clear();
+        }
+    }
+
+    /**
+     * Get new tokens for a scheduled refresh. The refresh_token grant is tried first if the credential supports it,
+     * the cached tokens have a refresh token and the grant never failed for the credential; otherwise the credential
+     * itself is used. Each request waits for its own admission by the rate limiter, ordered by the hard expiry of the
+     * cached tokens.
+     *
+     * @param credential credential to fetch tokens with
+     * @return future completed with CSP tokens, or with null if every way failed
+     */
+    private CompletableFuture<CSPTokens> refreshTokens(@NotNull final Credential credential) {
+        CacheEntry current = tokensCache.policy().getIfPresentQuietly(credential);
+        long deadline = current != null ? current.hardExpiry : System.nanoTime();
+        String refreshToken = current != null ? current.tokens.getRefreshToken() : null;
+        if (!config.isRefreshTokenGrant() || refreshToken == null || !credential.supportsRefreshGrant()
+                || refreshGrantFailures.contains(credential)) {
+            return requestCredentialGrant(credential, deadline);
+        }
+        return requestTokensAsync(Credential.CSP_OAUTH_TOKEN_URL, credential.refreshRequest(refreshToken),
+                "refresh token", deadline).thenCompose(tokens -> {
+            if (tokens != null) {
+                refreshTokenGrants.increment();
+                return CompletableFuture.completedFuture(tokens);
+            }
+            refreshTokenFallbacks.increment();
+            refreshGrantFailures.add(credential);
+            LOGGER.warning("Refresh token grant failed, using " + credential.type() + " from now on");
+            return requestCredentialGrant(credential, deadline);
+        });
+    }
+
+    private CompletableFuture<CSPTokens> requestCredentialGrant(@NotNull final Credential credential,
+                                                                final long deadline) {
+        return requestTokensAsync(credential, deadline).thenApply(tokens -> {
+            if (tokens != null) {
+                credentialGrants.increment();
+            }
+            return tokens;
+        });
+    }
+
+    /**
+     * Free the off-heap slot of tokens removed from the cache once they expire. Until then callers still holding them,
+     * e.g. during a rotation overlap, can read them.
+     *
+     * @param entry tokens removed from the cache
+     */
+    private void releaseAtExpiry(@NotNull final CacheEntry entry) {
+        if (entry.tokens instanceof TokenArena.OffHeapTokens) {
+            TokenArena.OffHeapTokens tokens = (TokenArena.OffHeapTokens) entry.tokens;
+            refreshScheduler.schedule(tokens::release, Math.max(entry.expiry - System.nanoTime(), 0),
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Send token request of the credential on OkHttp dispatcher threads once the rate limiter admits it.
+     *
+     * @param credential credential to fetch tokens with
+     * @param deadline   {@link System#nanoTime()} by which the tokens are needed
+     * @return future completed with CSP tokens, or with null if something failed or the circuit of the endpoint is open
+     */
+    private CompletableFuture<CSPTokens> requestTokensAsync(@NotNull final Credential credential, final long deadline) {
+        return requestTokensAsync(credential.endpoint(), credential.tokenRequest(), credential.type(), deadline);
+    }
+
+    /**
+     * Send token request on OkHttp dispatcher threads once the rate limiter admits it.
+     *
+     * @param endpoint URL of the CSP endpoint the request is sent to
+     * @param request  token request
+     * @param type     human-readable kind of the request, never a secret
+     * @param deadline {@link System#nanoTime()} by which the tokens are needed
+     * @return future completed with CSP tokens, or with null if something failed or the circuit of the endpoint is open
+     */
+    private CompletableFuture<CSPTokens> requestTokensAsync(@NotNull final String endpoint,
+                                                            @NotNull final Request request,
+                                                            @NotNull final String type, final long deadline) {
+        CircuitBreaker breaker = circuitBreaker(endpoint);
+        if (!breaker.tryAcquire()) {
+            LOGGER.fine("Circuit of " + endpoint + " is open, skipping fetch");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<CSPTokens> future = new CompletableFuture<>();
+        fetchQueue.submit(deadline, () -> enqueueTokenRequest(endpoint, request, type, breaker, future));
+        return future;
+    }
+
+    private void enqueueTokenRequest(@NotNull final String endpoint, @NotNull final Request request,
+                                     @NotNull final String type, @NotNull final CircuitBreaker breaker,
+                                     @NotNull final CompletableFuture<CSPTokens> future) {
+        LOGGER.info("Fetching tokens by " + type);
+
+        LatencyTracker latency = fetchLatency(endpoint);
+        long start = System.nanoTime();
+        cspClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                latency.record(System.nanoTime() - start);
+                breaker.onFailure();
+                LOGGER.log(Level.SEVERE, "Error to fetch CSP tokens", e);
+                future.complete(null);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                latency.record(System.nanoTime() - start);
+                try {
+                    future.complete(readTokens(response, breaker));
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Error to fetch CSP tokens", e);
+                    future.complete(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Read tokens from CSP response. Server errors and rate limiting count as endpoint failures, any other
+     * response means the endpoint is healthy, even if it rejected the credential. Rate limiting also pauses all
+     * fetches for the time CSP asked for.
+     *
+     * @param response CSP response
+     * @param breaker  circuit breaker of the endpoint
+     * @return CSP tokens, or null if CSP returned an error
+     */
+    private CSPTokens readTokens(@NotNull Response response, @NotNull CircuitBreaker breaker) throws IOException {
+        if (response.code() == 429) {
+            long retryAfter = retryAfterSeconds(response.header("Retry-After"));
+            LOGGER.warning("CSP rate limit hit, pausing fetches for " + retryAfter + " seconds");
+            fetchQueue.pauseUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfter));
+        }
+        if (response.code() >= 500 || response.code() == 429) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+        try (ResponseBody responseBody = response.body()) {
             if (response.isSuccessful()) {
                 assert responseBody != null;
-                CSPTokens newTokens = objectMapper.readValue(responseBody.byteStream(), CSPTokens.class);
-                responseBody.close();
-                return newTokens;
+                try (JsonParser parser = objectMapper.getFactory().createParser(responseBody.byteStream())) {
+                    return CSPTokens.read(parser).project(config.isKeepIdToken(), config.isKeepRefreshToken());
+                }
             } else {
                 LOGGER.log(Level.SEVERE, "Error to fetch CSP tokens: " + response.code());
                 return null;
             }
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Error to fetch CSP tokens", e);
-            return null;
+        }
+    }
+
+    /**
+     * @param retryAfter Retry-After header, either delay seconds or an HTTP date
+     * @return seconds to wait before the next request
+     */
+    private static long retryAfterSeconds(@Nullable final String retryAfter) {
+        if (retryAfter == null) {
+            return defaultRetryAfter;
+        }
+        try {
+            return Math.max(Long.parseLong(retryAfter.trim()), 0);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(date.toEpochSecond() - System.currentTimeMillis() / 1000, 0);
+            } catch (DateTimeParseException ignored) {
+                return defaultRetryAfter;
+            }
+        }
+    }
+
+    /**
+     * Planned refresh of a credential. The task held by {@link #refreshTasks} is the only refresh chain of the
+     * credential; a task which was replaced or removed meanwhile, e.g. by an eviction during its fetch, neither stores
+     * its tokens nor schedules a successor.
+     */
+    private final class RefreshTask implements RefreshScheduler.Task, Runnable {
+        private final Credential credential;
+        private volatile RefreshScheduler.Task timer;
+
+        private RefreshTask(@NotNull final Credential credential) {
+            this.credential = credential;
+        }
+
+        @Override
+        public void run() {
+            refreshWorkers.execute(this::refresh);
+        }
+
+        private void refresh() {
+            if (refreshTasks.get(credential) != this) {
+                return;
+            }
+            long next = System.nanoTime() + TimeUnit.SECONDS.toNanos(delayOnFail);
+            try {
+                next = fetch();
+            } finally {
+                // Even a refresh which threw schedules its successor, or the credential would never refresh again.
+                if (refreshTasks.get(credential) == this) {
+                    RefreshTask successor = scheduleTokenUpdate(credential, next);
+                    if (!refreshTasks.replace(credential, this, successor)) {
+                        successor.cancel();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Refresh under the single-flight future of the credential, so callers rejected with the old tokens wait for
+         * this refresh instead of starting another fetch. If a fetch is in flight already, its tokens are taken over.
+         *
+         * @return {@link System#nanoTime()} of the next refresh
+         */
+        private long fetch() {
+            CompletableFuture<CSPTokens> created = new CompletableFuture<>();
+            CompletableFuture<CSPTokens> pending = pendingFetches.putIfAbsent(credential, created);
+            if (pending != null) {
+                return nextRefreshAfter(pending.join());
+            }
+            CSPTokens tokens = null;
+            try {
+                tokens = refreshTokens(credential).join();
+                if (refreshTasks.get(credential) != this) {
+                    // Evicted or superseded during the fetch, don't put the key back into the cache.
+                    return System.nanoTime();
+                }
+                return onFetched(credential, tokens);
+            } finally {
+                pendingFetches.remove(credential, created);
+                created.complete(tokens);
+            }
+        }
+
+        /**
+         * @param tokens tokens of a fetch started by someone else, or null if it failed
+         * @return {@link System#nanoTime()} of the next refresh
+         */
+        private long nextRefreshAfter(@Nullable final CSPTokens tokens) {
+            CacheEntry entry = tokensCache.policy().getIfPresentQuietly(credential);
+            if (tokens != null && entry != null) {
+                return refreshDeadline(credential, entry);
+            }
+            FailedFetch failed = failedFetches.get(credential);
+            return failed != null ? failed.retryAt : System.nanoTime() + TimeUnit.SECONDS.toNanos(delayOnFail);
+        }
+
+        @Override
+        public void cancel() {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Consecutive fetch failures of a key and the time before which it is not fetched again.
+     * The capped exponential backoff is jittered between its half and its full value, so keys failing together
+     * don't retry together.
+     */
+    private final class FailedFetch {
+        private final int failures;
+        private final int delay;
+        private final long retryAt;
+
+        private FailedFetch(final int failures) {
+            long backoff = (long) delayOnFail << Math.min(failures - 1, 20);
+            int capped = (int) Math.min(backoff, config.getMaxFailureBackoff().toSeconds());
+            this.failures = failures;
+            this.delay = capped / 2 + ThreadLocalRandom.current().nextInt(capped - capped / 2 + 1);
+            this.retryAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(delay);
+        }
+    }
+
+    /**
+     * Expires cache entries which were not read for the given time.
+     * Updates by the refresh task keep the remaining time, so refreshes alone never keep an entry alive.
+     * Entries with a {@link TokenHandle} are read through the handle and never expire.
+     */
+    private final class IdleExpiry implements Expiry<Credential, CacheEntry> {
+        private final long idleNanos;
+
+        private IdleExpiry(final long idleNanos) {
+            this.idleNanos = idleNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(Credential credential, CacheEntry entry, long currentTime) {
+            return tokenHandles.containsKey(credential) ? Long.MAX_VALUE : idleNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Credential credential, CacheEntry entry, long currentTime, long currentDuration) {
+            return tokenHandles.containsKey(credential) ? Long.MAX_VALUE : currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(Credential credential, CacheEntry entry, long currentTime, long currentDuration) {
+            return tokenHandles.containsKey(credential) ? Long.MAX_VALUE : idleNanos;
         }
     }
 }
@@ -0,0 +1,439 @@
+package csp.sample;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration of {@link CSPTokensProvider}.
+ */
+
+@Getter
+public class CSPTokensProviderConfig {
+
+    /**
+     * How cached tokens are kept up to date.
+     */
+    public enum RefreshMode {
+        /**
+         * Every cached key owns a scheduled task refreshing its tokens shortly before they expire.
+         */
+        SCHEDULED,
+        /**
+         * Reads return the cached tokens instantly and trigger a background refresh once the soft expiry passed.
+         * Reads past the hard expiry wait for the new tokens, at most {@link #getHardExpiryWait()}.
+         */
+        STALE_WHILE_REVALIDATE,
+        /**
+         * Like {@link #SCHEDULED}, but tokens are refreshed {@link #getRotationOverlap()} earlier, so tokens which
+         * requests in flight still carry stay valid for at least that long after reads switched to their successor.
+         */
+        ROTATING
+    }
+
+    /**
+     * Timer implementation running refresh tasks in {@link RefreshMode#SCHEDULED} and {@link RefreshMode#ROTATING}
+     * modes.
+     */
+    public enum SchedulerType {
+        /**
+         * Single thread scheduled executor, O(log n) per scheduled refresh.
+         */
+        EXECUTOR,
+        /**
+         * Hashed timing wheel, O(1) per scheduled refresh, suited for very large numbers of credentials.
+         */
+        TIMING_WHEEL
+    }
+
+    private final RefreshMode refreshMode;
+
+    private final SchedulerType schedulerType;
+
+    private final Duration wheelTick;
+
+    private final int wheelSize;
+
+    private final int refreshThreads;
+
+    private final Duration refreshJitter;
+
+    private final double latencyMultiple;
+
+    private final Duration refreshRetryBudget;
+
+    private final Duration softExpiryLead;
+
+    private final Duration hardExpiryLead;
+
+    private final Duration hardExpiryWait;
+
+    private final Duration rotationOverlap;
+
+    private final Duration maxFailureBackoff;
+
+    private final boolean refreshTokenGrant;
+
+    private final boolean keepIdToken;
+
+    private final boolean keepRefreshToken;
+
+    private final double fetchRateLimit;
+
+    private final int fetchBurst;
+
+    private final int breakerFailureThreshold;
+
+    private final Duration breakerOpenDuration;
+
+    private final Duration breakerRampUp;
+
+    private final long maxCachedKeys;
+
+    private final int offHeapSlots;
+
+    private final int offHeapSlotSize;
+
+    private final Duration idleExpiry;
+
+    private final Path snapshotFile;
+
+    private final int warmUpConcurrency;
+
+    private final int maxConcurrentFetches;
+
+    private final Duration minForcedRefreshInterval;
+
+    private CSPTokensProviderConfig(@NotNull final Builder builder) {
+        this.refreshMode = builder.refreshMode;
+        this.schedulerType = builder.schedulerType;
+        this.wheelTick = builder.wheelTick;
+        this.wheelSize = builder.wheelSize;
+        this.refreshThreads = builder.refreshThreads;
+        this.refreshJitter = builder.refreshJitter;
+        this.latencyMultiple = builder.latencyMultiple;
+        this.refreshRetryBudget = builder.refreshRetryBudget;
+        this.softExpiryLead = builder.softExpiryLead;
+        this.hardExpiryLead = builder.hardExpiryLead;
+        this.hardExpiryWait = builder.hardExpiryWait;
+        this.rotationOverlap = builder.rotationOverlap;
+        this.maxFailureBackoff = builder.maxFailureBackoff;
+        this.refreshTokenGrant = builder.refreshTokenGrant;
+        this.keepIdToken = builder.keepIdToken;
+        this.keepRefreshToken = builder.keepRefreshToken;
+        this.fetchRateLimit = builder.fetchRateLimit;
+        this.fetchBurst = builder.fetchBurst;
+        this.breakerFailureThreshold = builder.breakerFailureThreshold;
+        this.breakerOpenDuration = builder.breakerOpenDuration;
+        this.breakerRampUp = builder.breakerRampUp;
+        this.maxCachedKeys = builder.maxCachedKeys;
+        this.offHeapSlots = builder.offHeapSlots;
+        this.offHeapSlotSize = builder.offHeapSlotSize;
+        this.idleExpiry = builder.idleExpiry;
+        this.snapshotFile = builder.snapshotFile;
+        this.warmUpConcurrency = builder.warmUpConcurrency;
+        this.maxConcurrentFetches = builder.maxConcurrentFetches;
+        this.minForcedRefreshInterval = builder.minForcedRefreshInterval;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private RefreshMode refreshMode = RefreshMode.SCHEDULED;
+        private SchedulerType schedulerType = SchedulerType.EXECUTOR;
+        private Duration wheelTick = Duration.ofSeconds(1);
+        private int wheelSize = 512;
+        private int refreshThreads = 8;
+        private Duration refreshJitter = Duration.ofMinutes(5);
+        private double latencyMultiple = 3;
+        private Duration refreshRetryBudget = Duration.ofSeconds(30);
+        private Duration softExpiryLead = Duration.ofMinutes(5);
+        private Duration hardExpiryLead = Duration.ofSeconds(30);
+        private Duration hardExpiryWait = Duration.ofSeconds(10);
+        private Duration rotationOverlap = Duration.ofMinutes(2);
+        private Duration maxFailureBackoff = Duration.ofMinutes(10);
+        private boolean refreshTokenGrant = true;
+        private boolean keepIdToken = true;
+        private boolean keepRefreshToken = true;
+        private double fetchRateLimit = 20;
+        private int fetchBurst = 40;
+        private int breakerFailureThreshold = 5;
+        private Duration breakerOpenDuration = Duration.ofSeconds(30);
+        private Duration breakerRampUp = Duration.ofMinutes(1);
+        private long maxCachedKeys = 10_000;
+        private int offHeapSlots;
+        private int offHeapSlotSize = 8192;
+        private Duration idleExpiry = Duration.ofHours(1);
+        private Path snapshotFile;
+        private int warmUpConcurrency = 16;
+        private int maxConcurrentFetches = 64;
+        private Duration minForcedRefreshInterval = Duration.ofSeconds(30);
+
+        private Builder() {
+        }
+
+        /**
+         * @param refreshMode how cached tokens are kept up to date, {@link RefreshMode#SCHEDULED} by default
+         */
+        public Builder refreshMode(@NotNull final RefreshMode refreshMode) {
+            this.refreshMode = refreshMode;
+            return this;
+        }
+
+        /**
+         * @param schedulerType timer running refresh tasks, {@link SchedulerType#EXECUTOR} by default
+         */
+        public Builder schedulerType(@NotNull final SchedulerType schedulerType) {
+            this.schedulerType = schedulerType;
+            return this;
+        }
+
+        /**
+         * @param wheelTick precision of the {@link SchedulerType#TIMING_WHEEL} scheduler
+         */
+        public Builder wheelTick(@NotNull final Duration wheelTick) {
+            this.wheelTick = wheelTick;
+            return this;
+        }
+
+        /**
+         * @param wheelSize number of buckets of the {@link SchedulerType#TIMING_WHEEL} scheduler
+         */
+        public Builder wheelSize(final int wheelSize) {
+            this.wheelSize = wheelSize;
+            return this;
+        }
+
+        /**
+         * @param refreshThreads number of worker threads running due refreshes, which caps concurrent refreshes
+         */
+        public Builder refreshThreads(final int refreshThreads) {
+            this.refreshThreads = refreshThreads;
+            return this;
+        }
+
+        /**
+         * @param refreshJitter window before the planned refresh time within which refreshes are spread
+         */
+        public Builder refreshJitter(@NotNull final Duration refreshJitter) {
+            this.refreshJitter = refreshJitter;
+            return this;
+        }
+
+        /**
+         * @param latencyMultiple how many p99 fetch latencies before hard expiry a refresh starts
+         */
+        public Builder latencyMultiple(final double latencyMultiple) {
+            this.latencyMultiple = latencyMultiple;
+            return this;
+        }
+
+        /**
+         * @param refreshRetryBudget time reserved before hard expiry for retrying a failed refresh
+         */
+        public Builder refreshRetryBudget(@NotNull final Duration refreshRetryBudget) {
+            this.refreshRetryBudget = refreshRetryBudget;
+            return this;
+        }
+
+        /**
+         * @param softExpiryLead time before token expiry when a background refresh is triggered
+         */
+        public Builder softExpiryLead(@NotNull final Duration softExpiryLead) {
+            this.softExpiryLead = softExpiryLead;
+            return this;
+        }
+
+        /**
+         * @param hardExpiryLead time before token expiry after which cached tokens are never returned
+         */
+        public Builder hardExpiryLead(@NotNull final Duration hardExpiryLead) {
+            this.hardExpiryLead = hardExpiryLead;
+            return this;
+        }
+
+        /**
+         * @param hardExpiryWait maximum time a read waits for new tokens once the cached ones are past hard expiry
+         */
+        public Builder hardExpiryWait(@NotNull final Duration hardExpiryWait) {
+            this.hardExpiryWait = hardExpiryWait;
+            return this;
+        }
+
+        /**
+         * @param rotationOverlap how much earlier tokens are refreshed in {@link RefreshMode#ROTATING} mode, the least
+         *                        remaining validity of replaced tokens
+         */
+        public Builder rotationOverlap(@NotNull final Duration rotationOverlap) {
+            this.rotationOverlap = rotationOverlap;
+            return this;
+        }
+
+        /**
+         * @param maxFailureBackoff upper bound of the exponential backoff between fetches for a failing credential
+         */
+        public Builder maxFailureBackoff(@NotNull final Duration maxFailureBackoff) {
+            this.maxFailureBackoff = maxFailureBackoff;
+            return this;
+        }
+
+        /**
+         * @param refreshTokenGrant whether scheduled refreshes of OAuth app tokens use the refresh token of the cached
+         *                          tokens, if any, before falling back to the credential. A credential whose grant
+         *                          failed once is refreshed by the credential grant only; API tokens always are
+         */
+        public Builder refreshTokenGrant(final boolean refreshTokenGrant) {
+            this.refreshTokenGrant = refreshTokenGrant;
+            return this;
+        }
+
+        /**
+         * @param keepIdToken whether cached tokens keep the ID token, drop it to save memory if it is not used
+         */
+        public Builder keepIdToken(final boolean keepIdToken) {
+            this.keepIdToken = keepIdToken;
+            return this;
+        }
+
+        /**
+         * @param keepRefreshToken whether cached tokens keep the refresh token, without it
+         *                         {@link #refreshTokenGrant(boolean)} has no effect
+         */
+        public Builder keepRefreshToken(final boolean keepRefreshToken) {
+            this.keepRefreshToken = keepRefreshToken;
+            return this;
+        }
+
+        /**
+         * @param fetchRateLimit maximum number of CSP requests per second across all credentials
+         */
+        public Builder fetchRateLimit(final double fetchRateLimit) {
+            this.fetchRateLimit = fetchRateLimit;
+            return this;
+        }
+
+        /**
+         * @param fetchBurst number of CSP requests which may be sent at once before the rate limit applies
+         */
+        public Builder fetchBurst(final int fetchBurst) {
+            this.fetchBurst = fetchBurst;
+            return this;
+        }
+
+        /**
+         * @param breakerFailureThreshold consecutive failures of a CSP endpoint opening its circuit
+         */
+        public Builder breakerFailureThreshold(final int breakerFailureThreshold) {
+            this.breakerFailureThreshold = breakerFailureThreshold;
+            return this;
+        }
+
+        /**
+         * @param breakerOpenDuration time an open circuit rejects requests before probing the endpoint
+         */
+        public Builder breakerOpenDuration(@NotNull final Duration breakerOpenDuration) {
+            this.breakerOpenDuration = breakerOpenDuration;
+            return this;
+        }
+
+        /**
+         * @param breakerRampUp time after recovery during which traffic to the endpoint grows back to full
+         */
+        public Builder breakerRampUp(@NotNull final Duration breakerRampUp) {
+            this.breakerRampUp = breakerRampUp;
+            return this;
+        }
+
+        /**
+         * @param maxCachedKeys maximum number of cached credentials, rarely used ones are evicted first
+         */
+        public Builder maxCachedKeys(final long maxCachedKeys) {
+            this.maxCachedKeys = maxCachedKeys;
+            return this;
+        }
+
+        /**
+         * @param offHeapSlots number of cached tokens whose JWTs are kept in direct memory instead of the heap,
+         *                     0 by default which keeps all tokens on heap; every read of an off-heap JWT, including
+         *                     each Authorization header, copies it into a new String, so the arena trades
+         *                     per-read garbage and copying for a smaller old generation
+         */
+        public Builder offHeapSlots(final int offHeapSlots) {
+            this.offHeapSlots = offHeapSlots;
+            return this;
+        }
+
+        /**
+         * @param offHeapSlotSize bytes of direct memory reserved for the JWTs of each cached tokens, tokens not
+         *                        fitting are kept on heap
+         */
+        public Builder offHeapSlotSize(final int offHeapSlotSize) {
+            this.offHeapSlotSize = offHeapSlotSize;
+            return this;
+        }
+
+        /**
+         * @param idleExpiry time after the last read when cached tokens are evicted and no longer refreshed
+         */
+        public Builder idleExpiry(@NotNull final Duration idleExpiry) {
+            this.idleExpiry = idleExpiry;
+            return this;
+        }
+
+        /**
+         * @param snapshotFile file persisting fetched tokens across restarts, or null to keep them in memory only
+         */
+        public Builder snapshotFile(@Nullable final Path snapshotFile) {
+            this.snapshotFile = snapshotFile;
+            return this;
+        }
+
+        /**
+         * @param warmUpConcurrency maximum number of parallel fetches of {@link CSPTokensProvider#warmUp()} and
+         *                          {@link CSPTokensProvider#getTokensAsync(String, String, java.util.List)}
+         */
+        public Builder warmUpConcurrency(final int warmUpConcurrency) {
+            this.warmUpConcurrency = warmUpConcurrency;
+            return this;
+        }
+
+        /**
+         * @param maxConcurrentFetches maximum number of CSP requests in flight across all credentials
+         */
+        public Builder maxConcurrentFetches(final int maxConcurrentFetches) {
+            this.maxConcurrentFetches = maxConcurrentFetches;
+            return this;
+        }
+
+        /**
+         * @param minForcedRefreshInterval minimum age of tokens before they are replaced ahead of their refresh:
+         *                                 a 401 to a request authorized by {@link CSPAuthenticator} passes on for
+         *                                 younger tokens, as they are rejected for another reason than their age, and
+         *                                 getTokenValidFor serves younger tokens even if they expire sooner than
+         *                                 requested, as new tokens wouldn't last longer
+         */
+        public Builder minForcedRefreshInterval(@NotNull final Duration minForcedRefreshInterval) {
+            this.minForcedRefreshInterval = minForcedRefreshInterval;
+            return this;
+        }
+
+        public CSPTokensProviderConfig build() {
+            if (softExpiryLead.compareTo(hardExpiryLead) < 0) {
+                throw new IllegalArgumentException("softExpiryLead must not be shorter than hardExpiryLead");
+            }
+            if (refreshThreads <= 0 || warmUpConcurrency <= 0 || maxConcurrentFetches <= 0) {
+                throw new IllegalArgumentException(
+                        "refreshThreads, warmUpConcurrency and maxConcurrentFetches must be positive");
+            }
+            if (offHeapSlots < 0 || offHeapSlotSize < 3 * Integer.BYTES) {
+                throw new IllegalArgumentException("offHeapSlots must not be negative and offHeapSlotSize too small");
+            }
+            return new CSPTokensProviderConfig(this);
+        }
+    }
+}
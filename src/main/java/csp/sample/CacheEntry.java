@@ -0,0 +1,73 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cached tokens with their fetch time and expiry deadlines in {@link System#nanoTime()} units.
+ */
+final class CacheEntry {
+    final CSPTokens tokens;
+    final long fetchedAt;
+    final long expiry;
+    final long softExpiry;
+    final long hardExpiry;
+
+    /**
+     * Authorization header value with the access token, built on first use.
+     */
+    private String authorization;
+
+    /**
+     * @param tokens         fetched tokens
+     * @param softExpiryLead nanoseconds before expiry when the tokens should be refreshed
+     * @param hardExpiryLead nanoseconds before expiry after which the tokens must not be used
+     */
+    CacheEntry(@NotNull final CSPTokens tokens, final long softExpiryLead, final long hardExpiryLead) {
+        this(tokens, System.nanoTime() + TimeUnit.SECONDS.toNanos(tokens.getExpiresIn()),
+                softExpiryLead, hardExpiryLead);
+    }
+
+    /**
+     * @param tokens         restored tokens
+     * @param expiry         {@link System#nanoTime()} when the tokens expire
+     * @param softExpiryLead nanoseconds before expiry when the tokens should be refreshed
+     * @param hardExpiryLead nanoseconds before expiry after which the tokens must not be used
+     */
+    CacheEntry(@NotNull final CSPTokens tokens, final long expiry, final long softExpiryLead,
+               final long hardExpiryLead) {
+        this.tokens = tokens;
+        this.fetchedAt = expiry - TimeUnit.SECONDS.toNanos(tokens.getExpiresIn());
+        this.expiry = expiry;
+        this.softExpiry = expiry - softExpiryLead;
+        this.hardExpiry = expiry - hardExpiryLead;
+    }
+
+    /**
+     * @return Authorization header value with the access token, shared by all requests using these tokens unless they
+     * are kept off-heap; null if the off-heap tokens were released meanwhile
+     */
+    String authorization() {
+        if (tokens instanceof TokenArena.OffHeapTokens) {
+            // Caching the header would keep the JWT on heap for the life of the entry, defeating the arena.
+            String accessToken = tokens.getAccessToken();
+            return accessToken == null ? null : CSPAuthenticator.BEARER + accessToken;
+        }
+        // Racy single-check, at worst a few callers build equal strings.
+        String header = authorization;
+        if (header == null) {
+            header = CSPAuthenticator.BEARER + tokens.getAccessToken();
+            authorization = header;
+        }
+        return header;
+    }
+
+    /**
+     * @param now current {@link System#nanoTime()}
+     * @return true if the tokens must not be used anymore
+     */
+    boolean isHardExpired(final long now) {
+        return now - hardExpiry >= 0;
+    }
+}
@@ -0,0 +1,108 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker of a CSP endpoint.
+ * After {@code failureThreshold} consecutive failures the circuit opens and rejects requests for the open duration.
+ * Then a single probe request is let through; if it succeeds the circuit closes and admits a linearly growing share
+ * of requests over the ramp-up duration, so keys which backed off during the outage don't all retry at once.
+ */
+class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final long rampUpNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long closedAt;
+    private boolean rampingUp;
+    private boolean probeInFlight;
+
+    /**
+     * @param endpoint         endpoint URL, for logging
+     * @param failureThreshold consecutive failures opening the circuit
+     * @param openNanos        time the circuit stays open before probing
+     * @param rampUpNanos      time after recovery during which the admitted share of requests grows to all of them
+     */
+    CircuitBreaker(@NotNull final String endpoint, final int failureThreshold, final long openNanos,
+                   final long rampUpNanos) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.rampUpNanos = rampUpNanos;
+    }
+
+    /**
+     * Ask for permission to send a request. Every permitted request must be followed by
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return true if the request may be sent
+     */
+    synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        if (state == State.OPEN) {
+            if (now - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            LOGGER.info("Circuit of " + endpoint + " is half-open, probing");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                return false;
+            }
+            probeInFlight = true;
+            return true;
+        }
+
+        if (!rampingUp) {
+            return true;
+        }
+        long sinceClosed = now - closedAt;
+        if (sinceClosed >= rampUpNanos) {
+            rampingUp = false;
+            return true;
+        }
+        return ThreadLocalRandom.current().nextLong(rampUpNanos) < sinceClosed;
+    }
+
+    /**
+     * The endpoint answered, even if it rejected the credential.
+     */
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            probeInFlight = false;
+            closedAt = System.nanoTime();
+            rampingUp = rampUpNanos > 0;
+            LOGGER.info("Circuit of " + endpoint + " is closed, ramping up");
+        }
+    }
+
+    /**
+     * The endpoint failed: an I/O error, a server error or a rate limit.
+     */
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            probeInFlight = false;
+            openedAt = System.nanoTime();
+            LOGGER.warning("Circuit of " + endpoint + " is open after " + consecutiveFailures + " failure(s)");
+        }
+    }
+}
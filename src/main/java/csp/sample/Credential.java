@@ -0,0 +1,241 @@
+package csp.sample;
+
+import okhttp3.Credentials;
+import okhttp3.FormBody;
+import okhttp3.Request;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Credential to fetch CSP tokens with: a user's API token or server-to-server OAuth app credentials.
+ * The hash code is computed once from the hash codes the strings cache themselves, so hashing a credential built for
+ * every call costs no pass over the secret after the first one.
+ */
+abstract class Credential {
+
+    static final String CSP_API_TOKEN_URL = "https://console-stg.cloud.vmware.com/csp/gateway/am/api/auth/api-tokens/authorize";
+    static final String CSP_OAUTH_TOKEN_URL = "https://console-stg.cloud.vmware.com/csp/gateway/am/api/auth/authorize";
+
+    /**
+     * @param apiToken user's API token
+     * @return credential fetching tokens by API token
+     */
+    static Credential apiToken(@NotNull final String apiToken) {
+        return new ApiToken(apiToken);
+    }
+
+    /**
+     * @param appId     OAuth app ID
+     * @param appSecret OAuth app secret
+     * @param orgId     CSP org ID
+     * @return credential fetching tokens by OAuth app credentials
+     */
+    static Credential oauthApp(@NotNull final String appId, @NotNull final String appSecret,
+                               @Nullable final String orgId) {
+        return new OAuthApp(appId, appSecret, orgId);
+    }
+
+    private final int hash;
+
+    /**
+     * @param hash hash code of the identity, combined from the cached hash codes of its strings
+     */
+    private Credential(final int hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * @return identity of the credential, including its secret; never logged nor stored other than hashed
+     */
+    abstract String key();
+
+    /**
+     * @return identifier of the credential safe to log and return to callers, never containing the secret
+     */
+    abstract String id();
+
+    @Override
+    public final boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Credential that = (Credential) o;
+        return hash == that.hash && sameIdentity(that);
+    }
+
+    /**
+     * @param other credential of the same class
+     * @return true if both credentials have the same identity
+     */
+    abstract boolean sameIdentity(@NotNull Credential other);
+
+    @Override
+    public final int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return URL of the CSP endpoint issuing tokens for the credential
+     */
+    abstract String endpoint();
+
+    /**
+     * @return human-readable kind of the credential, never the secret itself
+     */
+    abstract String type();
+
+    /**
+     * @return request fetching new tokens
+     */
+    abstract Request tokenRequest();
+
+    /**
+     * @return true if tokens of the credential can be refreshed by the refresh_token grant
+     */
+    boolean supportsRefreshGrant() {
+        return true;
+    }
+
+    /**
+     * <a href="https://console-stg.cloud.vmware.com/csp/gateway/authn/api/swagger-ui.html#/Authentication/getTokenForAuthGrantTypeInternalUsingPOST">...</a>
+     *
+     * @param refreshToken refresh token of previously fetched tokens
+     * @return request fetching new tokens by the refresh_token grant on {@link #CSP_OAUTH_TOKEN_URL}
+     */
+    Request refreshRequest(@NotNull final String refreshToken) {
+        return new Request.Builder().
+                url(CSP_OAUTH_TOKEN_URL).
+                post(new FormBody(List.of("grant_type", "refresh_token"), List.of("refresh_token", refreshToken))).
+                build();
+    }
+
+    private static final class ApiToken extends Credential {
+        private final String apiToken;
+
+        private ApiToken(@NotNull final String apiToken) {
+            super(apiToken.hashCode());
+            this.apiToken = apiToken;
+        }
+
+        @Override
+        String key() {
+            return apiToken;
+        }
+
+        /**
+         * The API token is the secret itself, so it is identified by a prefix of its SHA-256 fingerprint.
+         */
+        @Override
+        String id() {
+            return "api-token:" + TokenSnapshotStore.fingerprint(apiToken).substring(0, 16);
+        }
+
+        @Override
+        boolean sameIdentity(@NotNull final Credential other) {
+            return apiToken.equals(((ApiToken) other).apiToken);
+        }
+
+        @Override
+        String endpoint() {
+            return CSP_API_TOKEN_URL;
+        }
+
+        @Override
+        String type() {
+            return "API token";
+        }
+
+        /**
+         * The refresh token of API token grants is the API token itself, which must not be sent to the OAuth
+         * endpoint without client authentication.
+         */
+        @Override
+        boolean supportsRefreshGrant() {
+            return false;
+        }
+
+        /**
+         * <a href="https://console-stg.cloud.vmware.com/csp/gateway/authn/api/swagger-ui.html#/Authentication/getAccessTokenByApiRefreshTokenUsingPOST">...</a>
+         */
+        @Override
+        Request tokenRequest() {
+            return new Request.Builder().
+                    url(CSP_API_TOKEN_URL).
+                    post(new FormBody(List.of("api_token"), List.of(apiToken))).
+                    build();
+        }
+    }
+
+    private static final class OAuthApp extends Credential {
+        private final String appId;
+        private final String appSecret;
+        private final String orgId;
+
+        /**
+         * Tokens are minted per org, so the same app used in several orgs has a key per org. The secret is part of
+         * the identity: a wrong secret never gets the tokens of the right one, and after a secret rotation the new
+         * secret fetches its own tokens while the entry of the old one stops being read and idles out.
+         */
+        private OAuthApp(@NotNull final String appId, @NotNull final String appSecret, @Nullable final String orgId) {
+            super((appId.hashCode() * 31 + appSecret.hashCode()) * 31 + Objects.hashCode(orgId));
+            this.appId = appId;
+            this.appSecret = appSecret;
+            this.orgId = orgId;
+        }
+
+        @Override
+        String key() {
+            return id() + ':' + appSecret;
+        }
+
+        @Override
+        String id() {
+            return orgId == null ? appId : appId + '/' + orgId;
+        }
+
+        @Override
+        boolean sameIdentity(@NotNull final Credential other) {
+            OAuthApp that = (OAuthApp) other;
+            return appId.equals(that.appId) && appSecret.equals(that.appSecret) && Objects.equals(orgId, that.orgId);
+        }
+
+        @Override
+        String endpoint() {
+            return CSP_OAUTH_TOKEN_URL;
+        }
+
+        @Override
+        String type() {
+            return "OAuth app credentials";
+        }
+
+        /**
+         * <a href="https://console-stg.cloud.vmware.com/csp/gateway/authn/api/swagger-ui.html#/Authentication/getTokenForAuthGrantTypeInternalUsingPOST">...</a>
+         */
+        @Override
+        Request tokenRequest() {
+            String credentials = Credentials.basic(appId, appSecret);
+            FormBody body = orgId == null ?
+                    new FormBody(List.of("grant_type"), List.of("client_credentials")) :
+                    new FormBody(List.of("grant_type", "orgId"), List.of("client_credentials", orgId));
+            return new Request.Builder().
+                    url(CSP_OAUTH_TOKEN_URL).
+                    post(body).
+                    header("Authorization", credentials).
+                    build();
+        }
+
+        @Override
+        Request refreshRequest(@NotNull final String refreshToken) {
+            return super.refreshRequest(refreshToken).newBuilder().
+                    header("Authorization", Credentials.basic(appId, appSecret)).
+                    build();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reusable cache key of a single credential, obtained once by {@link CSPTokensProvider#credentialKey(String)}.
+ * Lookups by key go straight to the cache, without building and hashing the credential on every call.
+ */
+public final class CredentialKey {
+
+    final Credential credential;
+
+    CredentialKey(@NotNull final Credential credential) {
+        this.credential = credential;
+    }
+
+    /**
+     * @return identifier of the credential without its secret, as used by {@link CSPTokensProvider#warmUp()}: the
+     * app ID followed by "/" and the org ID if any for OAuth apps, a SHA-256 prefix of the token for API tokens
+     */
+    public String getId() {
+        return credential.id();
+    }
+}
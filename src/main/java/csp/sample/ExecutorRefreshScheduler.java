@@ -0,0 +1,23 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refresh scheduler backed by a single thread {@link ScheduledExecutorService}.
+ * Scheduling costs O(log n) in the number of scheduled tasks.
+ */
+class ExecutorRefreshScheduler implements RefreshScheduler {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @Override
+    public Task schedule(@NotNull final Runnable task, final long delay, @NotNull final TimeUnit unit) {
+        ScheduledFuture<?> future = executor.schedule(task, delay, unit);
+        return () -> future.cancel(false);
+    }
+}
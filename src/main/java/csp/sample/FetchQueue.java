@@ -0,0 +1,140 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Admits CSP fetches through a shared {@link RateLimiter}.
+ * Fetches start right away while the budget allows; otherwise they wait in a queue ordered by urgency, so when the
+ * budget is tight the tokens closest to expiry are refreshed first.
+ */
+class FetchQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(FetchQueue.class.getName());
+
+    private final RateLimiter rateLimiter;
+
+    private final PriorityBlockingQueue<PendingFetch> queue = new PriorityBlockingQueue<>();
+
+    /**
+     * Fetches not admitted yet, including the one the dispatcher holds while it waits for the rate limiter.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder admitted = new LongAdder();
+
+    private final LongAdder delayed = new LongAdder();
+
+    FetchQueue(@NotNull final RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+
+        Thread dispatcher = new Thread(this::dispatch, "csp-fetch-queue");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Run the fetch once the rate limiter admits it.
+     *
+     * @param deadline {@link System#nanoTime()} by which the fetch is needed, earlier deadlines are admitted first
+     * @param fetch    starts the fetch, must not block
+     */
+    void submit(final long deadline, @NotNull final Runnable fetch) {
+        // Never take a permit ahead of a waiting fetch, it is at least as urgent.
+        if (waiting.get() == 0 && rateLimiter.tryAcquire() == 0) {
+            admitted.increment();
+            fetch.run();
+            return;
+        }
+        delayed.increment();
+        waiting.incrementAndGet();
+        queue.add(new PendingFetch(deadline, sequence.getAndIncrement(), fetch));
+    }
+
+    /**
+     * Hold all fetches until the given time.
+     *
+     * @param until {@link System#nanoTime()} of the next admitted fetch
+     */
+    void pauseUntil(final long until) {
+        rateLimiter.pauseUntil(until);
+    }
+
+    /**
+     * @return number of fetches waiting for admission
+     */
+    int getQueueDepth() {
+        return waiting.get();
+    }
+
+    /**
+     * @return number of fetches admitted so far
+     */
+    long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return number of fetches which had to wait for admission so far
+     */
+    long getDelayedCount() {
+        return delayed.sum();
+    }
+
+    private void dispatch() {
+        while (true) {
+            PendingFetch head;
+            try {
+                head = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long wait;
+            while ((wait = rateLimiter.tryAcquire()) > 0) {
+                LockSupport.parkNanos(this, wait);
+                // A more urgent fetch may have arrived while waiting.
+                PendingFetch urgent = queue.peek();
+                if (urgent != null && urgent.compareTo(head) < 0) {
+                    queue.add(head);
+                    head = queue.poll();
+                }
+            }
+
+            waiting.decrementAndGet();
+            admitted.increment();
+            try {
+                head.fetch.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to start CSP fetch", e);
+            }
+        }
+    }
+
+    private static final class PendingFetch implements Comparable<PendingFetch> {
+        private final long deadline;
+        private final long sequence;
+        private final Runnable fetch;
+
+        private PendingFetch(final long deadline, final long sequence, @NotNull final Runnable fetch) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.fetch = fetch;
+        }
+
+        @Override
+        public int compareTo(@NotNull final PendingFetch other) {
+            int byDeadline = Long.compare(deadline - other.deadline, 0);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+}
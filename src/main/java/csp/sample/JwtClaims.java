@@ -0,0 +1,208 @@
+package csp.sample;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Frequently used claims of a CSP access token, decoded once per token.
+ */
+
+@Getter
+public final class JwtClaims {
+
+    private static final Logger LOGGER = Logger.getLogger(JwtClaims.class.getName());
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    static final JwtClaims EMPTY = new JwtClaims(0, null, null, null, Collections.emptyList());
+
+    /**
+     * Expiration time in epoch seconds, 0 if the token has none.
+     */
+    private final long expiration;
+
+    private final String subject;
+
+    private final String context;
+
+    /**
+     * CSP organization ID, the {@code context_name} claim.
+     */
+    private final String orgId;
+
+    private final List<String> perms;
+
+    private JwtClaims(final long expiration, @Nullable final String subject, @Nullable final String context,
+                      @Nullable final String orgId, @NotNull final List<String> perms) {
+        this.expiration = expiration;
+        this.subject = subject;
+        this.context = context;
+        this.orgId = orgId;
+        this.perms = perms;
+    }
+
+    /**
+     * @param jwt access token
+     * @return claims of the token, or no claims if it is not a JWT
+     */
+    static JwtClaims decode(@Nullable final String jwt) {
+        byte[] payload = payload(jwt);
+        if (payload == null) {
+            return EMPTY;
+        }
+        long expiration = 0;
+        String subject = null;
+        String context = null;
+        String orgId = null;
+        List<String> perms = Collections.emptyList();
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return EMPTY;
+            }
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                parser.nextToken();
+                switch (field) {
+                    case "exp":
+                        expiration = parser.getValueAsLong();
+                        break;
+                    case "sub":
+                        subject = parser.getValueAsString();
+                        break;
+                    case "context":
+                        context = parser.getValueAsString();
+                        break;
+                    case "context_name":
+                        orgId = parser.getValueAsString();
+                        break;
+                    case "perms":
+                        perms = strings(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Access token has malformed claims", e);
+            return EMPTY;
+        }
+        return new JwtClaims(expiration, subject, context, orgId, perms);
+    }
+
+    /**
+     * Decode a single top-level claim, for claims which are not decoded up front.
+     *
+     * @param jwt  access token
+     * @param name claim name
+     * @return text of the claim, or null if the token has no such claim or it is an object or array
+     */
+    static String claim(@Nullable final String jwt, @NotNull final String name) {
+        byte[] payload = payload(jwt);
+        if (payload == null) {
+            return null;
+        }
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                parser.nextToken();
+                if (field.equals(name)) {
+                    return parser.getValueAsString();
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Access token has malformed claims", e);
+        }
+        return null;
+    }
+
+    /**
+     * @param parser parser positioned at an array of strings
+     * @return the strings, interned since permission names repeat across tokens
+     */
+    private static List<String> strings(@NotNull final JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            String value = parser.getValueAsString();
+            if (value != null) {
+                values.add(value.intern());
+            }
+            parser.skipChildren();
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Base64url-decode the payload of a JWT straight from its chars, without substrings or padding.
+     *
+     * @param jwt token
+     * @return payload bytes, or null if the token is not a JWT
+     */
+    @Nullable
+    static byte[] payload(@Nullable final String jwt) {
+        if (jwt == null) {
+            return null;
+        }
+        int start = jwt.indexOf('.') + 1;
+        int end = jwt.indexOf('.', start);
+        if (start == 0 || end < 0) {
+            return null;
+        }
+        byte[] payload = new byte[(end - start) * 3 / 4];
+        int length = 0;
+        int buffer = 0;
+        int bits = 0;
+        for (int i = start; i < end; i++) {
+            char c = jwt.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            int value = base64UrlValue(c);
+            if (value < 0) {
+                return null;
+            }
+            buffer = ((buffer << 6) | value) & 0xFFFF;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                payload[length++] = (byte) (buffer >> bits);
+            }
+        }
+        return length == payload.length ? payload : Arrays.copyOf(payload, length);
+    }
+
+    private static int base64UrlValue(final char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        if (c == '-') {
+            return 62;
+        }
+        return c == '_' ? 63 : -1;
+    }
+}
@@ -0,0 +1,55 @@
+package csp.sample;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks latency of recent fetches from a CSP endpoint in a ring of samples.
+ */
+class LatencyTracker {
+
+    private static final int sampleCount = 1024;
+    private static final long recomputeInterval = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLongArray samples = new AtomicLongArray(sampleCount);
+    private final AtomicLong recorded = new AtomicLong();
+
+    private volatile long p99 = -1;
+    private volatile long p99ComputedAt = System.nanoTime() - recomputeInterval;
+
+    /**
+     * @param nanos latency of a finished fetch
+     */
+    void record(final long nanos) {
+        samples.set((int) (recorded.getAndIncrement() & (sampleCount - 1)), nanos);
+    }
+
+    /**
+     * 99th percentile of the recent samples, recomputed at most once a second.
+     *
+     * @return latency in nanoseconds, or -1 if nothing was recorded yet
+     */
+    long p99() {
+        long now = System.nanoTime();
+        if (now - p99ComputedAt >= recomputeInterval) {
+            p99ComputedAt = now;
+            p99 = percentile(0.99);
+        }
+        return p99;
+    }
+
+    private long percentile(final double percentile) {
+        int count = (int) Math.min(recorded.get(), sampleCount);
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(percentile * count) - 1];
+    }
+}
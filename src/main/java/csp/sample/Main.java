@@ -27,29 +27,39 @@ public class Main {
 
     public static void main(String[] args) throws InterruptedException {
         CSPTokensProvider tokensProvider = new CSPTokensProvider();
+        OkHttpClient userClient = authorizedClient(tokensProvider.authenticator(CSP_API_TOKEN));
+        OkHttpClient oauthAppClient = authorizedClient(
+                tokensProvider.authenticator(OAUTH_APP_ID, OAUTH_APP_SECRET, null));
 
         while (true) {
             // Do your job, call WF API.
-            CSPTokens userTokens = tokensProvider.getToken(CSP_API_TOKEN);
-            printUserMessages(userTokens.getAccessToken());
+            printUserMessages(userClient);
 
-            CSPTokens oauthAppTokens = tokensProvider.getToken(OAUTH_APP_ID, OAUTH_APP_SECRET, null);
-            printUserMessages(oauthAppTokens.getAccessToken());
+            printUserMessages(oauthAppClient);
 
             // Do anything else
             Thread.sleep(TimeUnit.MINUTES.toMillis(10));
         }
     }
 
-    private static void printUserMessages(@NotNull final String accessToken) {
+    /**
+     * Client sharing connections with the others, which authorizes its requests with CSP tokens.
+     */
+    private static OkHttpClient authorizedClient(@NotNull final CSPAuthenticator authenticator) {
+        return aoaClient.newBuilder().
+                addInterceptor(authenticator).
+                authenticator(authenticator).
+                build();
+    }
+
+    private static void printUserMessages(@NotNull final OkHttpClient client) {
         Request request = new Request.Builder().
                 url(AOA_GET_ALERTS_API).
-                header("Authorization", "Bearer " + accessToken).
                 header("X-WAVEFRONT-TENANT", AOA_TENANT_ID).
                 get().
                 build();
 
-        try (ResponseBody responseBody = aoaClient.newCall(request).execute().body()) {
+        try (ResponseBody responseBody = client.newCall(request).execute().body()) {
             assert responseBody != null;
             LOGGER.info(responseBody.string());
         } catch (Exception e) {
@@ -0,0 +1,57 @@
+package csp.sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as the generic cell rate algorithm: a single CAS on the theoretical arrival
+ * time of the next request replaces refilling and taking tokens.
+ */
+class RateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param burst            number of permits which may be taken at once
+     */
+    RateLimiter(final double permitsPerSecond, final int burst) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = intervalNanos * (burst - 1);
+    }
+
+    /**
+     * Take a permit if one is available.
+     *
+     * @return 0 if the permit was taken, otherwise nanoseconds until one becomes available
+     */
+    long tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long arrival = theoreticalArrival.get();
+            long start = arrival - now > 0 ? arrival : now;
+            long wait = start - burstNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Hand out no permits before the given time, e.g. when CSP asked to retry after it.
+     *
+     * @param until {@link System#nanoTime()} of the first permit
+     */
+    void pauseUntil(final long until) {
+        theoreticalArrival.accumulateAndGet(until + burstNanos,
+                (current, paused) -> paused - current > 0 ? paused : current);
+    }
+}
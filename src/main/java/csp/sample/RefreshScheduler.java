@@ -0,0 +1,32 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer running token refresh tasks of {@link CSPTokensProvider}.
+ */
+interface RefreshScheduler {
+
+    /**
+     * Schedule a one-shot task.
+     *
+     * @param task  task to run
+     * @param delay delay to run the task
+     * @param unit  unit of the delay
+     * @return handle to cancel the task
+     */
+    Task schedule(@NotNull Runnable task, long delay, @NotNull TimeUnit unit);
+
+    /**
+     * Handle of a scheduled task.
+     */
+    interface Task {
+
+        /**
+         * Cancel the task if it has not run yet.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,92 @@
+package csp.sample;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads refreshes over time so that tokens fetched together are not refreshed in the same second forever.
+ * A refresh is moved earlier by a random jitter of up to the jitter window, and of two random candidates the second
+ * with fewer planned refreshes wins, which keeps the per-second load flat across keys.
+ */
+class RefreshSpreader {
+
+    private final long windowSeconds;
+
+    private final long startTime = System.nanoTime();
+
+    private final Map<Long, LongAdder> plannedPerSecond = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastPruned = new AtomicLong();
+
+    /**
+     * @param windowSeconds maximum number of seconds a refresh is moved earlier
+     */
+    RefreshSpreader(final long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    /**
+     * Pick the actual time of a refresh planned at the given deadline and record it.
+     * The jitter never exceeds half of the remaining time, so short retry delays stay short.
+     *
+     * @param deadline planned {@link System#nanoTime()} of the refresh
+     * @return {@link System#nanoTime()} of the refresh, not later than the planned one
+     */
+    long spread(final long deadline) {
+        long now = currentSecond();
+        prune(now);
+
+        long delay = Math.max(TimeUnit.NANOSECONDS.toSeconds(deadline - startTime) - now, 0);
+        int window = (int) Math.min(windowSeconds, delay / 2);
+        long jitter = 0;
+        if (window > 0) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(window + 1);
+            int second = random.nextInt(window + 1);
+            jitter = planned(now + delay - first) <= planned(now + delay - second) ? first : second;
+        }
+        plannedPerSecond.computeIfAbsent(now + delay - jitter, key -> new LongAdder()).increment();
+        return deadline - TimeUnit.SECONDS.toNanos(jitter);
+    }
+
+    /**
+     * Report of planned refreshes per second. Cancelled refreshes are counted until their second passes.
+     *
+     * @return number of planned refreshes keyed by seconds from now, seconds without refreshes are omitted
+     */
+    SortedMap<Long, Long> distribution() {
+        long now = currentSecond();
+        SortedMap<Long, Long> distribution = new TreeMap<>();
+        plannedPerSecond.forEach((second, count) -> {
+            if (second >= now) {
+                distribution.put(second - now, count.sum());
+            }
+        });
+        return distribution;
+    }
+
+    private long planned(final long second) {
+        LongAdder count = plannedPerSecond.get(second);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * Drop passed seconds, at most once a second.
+     */
+    private void prune(final long now) {
+        long last = lastPruned.get();
+        if (now > last && lastPruned.compareAndSet(last, now)) {
+            plannedPerSecond.keySet().removeIf(second -> second < now);
+        }
+    }
+
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime);
+    }
+}
@@ -0,0 +1,103 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set of CSP scopes as a bitset over a dictionary of scope names shared by all tokens.
+ * Tokens with the same scope string share one set, so memory grows with distinct scopes, not with tenants.
+ * Checks neither allocate nor depend on the number of scopes of the token.
+ */
+public final class ScopeSet {
+
+    private static final Map<String, Integer> dictionary = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger dictionarySize = new AtomicInteger();
+
+    private static final Map<String, ScopeSet> parsed = new ConcurrentHashMap<>();
+
+    private static final long[] NO_WORDS = new long[0];
+
+    static final ScopeSet EMPTY = new ScopeSet(NO_WORDS);
+
+    private final long[] words;
+
+    private ScopeSet(@NotNull final long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Build required scopes once and check them against tokens with {@link CSPTokens#hasAllScopes(ScopeSet)}.
+     *
+     * @param scopes scope names
+     * @return set of the scopes
+     */
+    public static ScopeSet of(@NotNull final String... scopes) {
+        long[] words = NO_WORDS;
+        for (String scope : scopes) {
+            words = set(words, index(scope));
+        }
+        return new ScopeSet(words);
+    }
+
+    /**
+     * @param scope space separated scopes of a token response
+     * @return set of the scopes, shared by all tokens with the same scope string
+     */
+    static ScopeSet parse(@Nullable final String scope) {
+        if (scope == null) {
+            return null;
+        }
+        return parsed.computeIfAbsent(scope, s -> {
+            long[] words = NO_WORDS;
+            for (String name : s.split(" ")) {
+                if (!name.isEmpty()) {
+                    words = set(words, index(name));
+                }
+            }
+            return new ScopeSet(words);
+        });
+    }
+
+    /**
+     * @param scope scope name
+     * @return true if the set has the scope
+     */
+    public boolean contains(@NotNull final String scope) {
+        Integer index = dictionary.get(scope);
+        if (index == null) {
+            return false;
+        }
+        int word = index >>> 6;
+        return word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param required required scopes
+     * @return true if the set has every required scope
+     */
+    public boolean containsAll(@NotNull final ScopeSet required) {
+        for (int i = 0; i < required.words.length; i++) {
+            long word = i < words.length ? words[i] : 0;
+            if ((word & required.words[i]) != required.words[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int index(@NotNull final String scope) {
+        return dictionary.computeIfAbsent(scope, s -> dictionarySize.getAndIncrement());
+    }
+
+    private static long[] set(@NotNull final long[] words, final int index) {
+        long[] grown = (index >>> 6) < words.length ? words : Arrays.copyOf(words, (index >>> 6) + 1);
+        grown[index >>> 6] |= 1L << index;
+        return grown;
+    }
+}
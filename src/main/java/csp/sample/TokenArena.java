@@ -0,0 +1,199 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Logger;
+
+/**
+ * Off-heap store for the JWTs of cached tokens, keeping them out of the old generation.
+ * The store is split into fixed size slots of direct buffers, which are reused through a free list.
+ * Every slot has a generation bumped on release, so tokens read after their slot was reused come back as null
+ * instead of the tokens of another credential.
+ */
+final class TokenArena {
+
+    private static final Logger LOGGER = Logger.getLogger(TokenArena.class.getName());
+
+    private static final int maxChunkBytes = 1 << 30;
+
+    private static final int ID_TOKEN = 0;
+    private static final int ACCESS_TOKEN = 1;
+    private static final int REFRESH_TOKEN = 2;
+
+    private final int slotSize;
+    private final int slotsPerChunk;
+    private final ByteBuffer[] chunks;
+    private final AtomicIntegerArray generations;
+    private final int[] freeSlots;
+    private int freeCount;
+    private boolean fullLogged;
+
+    /**
+     * @param slots    number of slots
+     * @param slotSize bytes of each slot
+     */
+    TokenArena(final int slots, final int slotSize) {
+        this.slotSize = slotSize;
+        this.slotsPerChunk = Math.max(1, maxChunkBytes / slotSize);
+        this.chunks = new ByteBuffer[(slots + slotsPerChunk - 1) / slotsPerChunk];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(Math.min(slotsPerChunk, slots - i * slotsPerChunk) * slotSize);
+        }
+        this.generations = new AtomicIntegerArray(slots);
+        this.freeSlots = new int[slots];
+        for (int i = 0; i < slots; i++) {
+            freeSlots[i] = slots - 1 - i;
+        }
+        this.freeCount = slots;
+    }
+
+    /**
+     * Move the JWTs of fetched tokens off-heap.
+     *
+     * @param tokens fetched tokens
+     * @return tokens reading their JWTs from the arena, or the given tokens if they don't fit or the arena is full
+     */
+    CSPTokens store(@NotNull final CSPTokens tokens) {
+        String[] values = {tokens.getIdToken(), tokens.getAccessToken(), tokens.getRefreshToken()};
+        int size = 0;
+        for (String value : values) {
+            if (value != null && !isLatin1(value)) {
+                return tokens;
+            }
+            size += Integer.BYTES + (value == null ? 0 : value.length());
+        }
+        if (size > slotSize) {
+            return tokens;
+        }
+        int slot = allocate();
+        if (slot < 0) {
+            return tokens;
+        }
+
+        ByteBuffer chunk = chunks[slot / slotsPerChunk];
+        int position = (slot % slotsPerChunk) * slotSize;
+        for (String value : values) {
+            if (value == null) {
+                chunk.putInt(position, -1);
+                position += Integer.BYTES;
+            } else {
+                chunk.putInt(position, value.length());
+                chunk.put(position + Integer.BYTES, value.getBytes(StandardCharsets.ISO_8859_1));
+                position += Integer.BYTES + value.length();
+            }
+        }
+        return new OffHeapTokens(tokens, this, slot, generations.get(slot));
+    }
+
+    /**
+     * @return number of slots holding tokens
+     */
+    synchronized int usedSlots() {
+        return generations.length() - freeCount;
+    }
+
+    private synchronized int allocate() {
+        if (freeCount == 0) {
+            if (!fullLogged) {
+                fullLogged = true;
+                LOGGER.warning("Off-heap token arena is full, keeping new tokens on heap");
+            }
+            return -1;
+        }
+        return freeSlots[--freeCount];
+    }
+
+    private synchronized void release(final int slot, final int generation) {
+        if (generations.compareAndSet(slot, generation, generation + 1)) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    /**
+     * Read a JWT from its slot. The slot is written only after its generation changed, so equal generations before
+     * and after the copy mean the copy is intact.
+     *
+     * @param slot       slot of the tokens
+     * @param generation generation of the slot when the tokens were stored
+     * @param field      index of the JWT in the slot
+     * @return the JWT, or null if it is absent or the slot was released
+     */
+    @Nullable
+    private String read(final int slot, final int generation, final int field) {
+        if (generations.get(slot) != generation) {
+            return null;
+        }
+        ByteBuffer chunk = chunks[slot / slotsPerChunk];
+        int start = (slot % slotsPerChunk) * slotSize;
+        int position = start;
+        for (int i = 0; i < field; i++) {
+            position += Integer.BYTES + Math.max(chunk.getInt(position), 0);
+            if (position - start > slotSize - Integer.BYTES) {
+                return null;
+            }
+        }
+        int length = chunk.getInt(position);
+        position += Integer.BYTES;
+        if (length < 0 || length > start + slotSize - position) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        chunk.get(position, bytes);
+        VarHandle.acquireFence();
+        return generations.get(slot) == generation ? new String(bytes, StandardCharsets.ISO_8859_1) : null;
+    }
+
+    private static boolean isLatin1(@NotNull final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tokens keeping their JWTs in the arena, only the small and shared fields stay on heap.
+     * Every JWT read copies it out of the arena once.
+     */
+    static final class OffHeapTokens extends CSPTokens {
+        private final TokenArena arena;
+        private final int slot;
+        private final int generation;
+
+        private OffHeapTokens(@NotNull final CSPTokens tokens, @NotNull final TokenArena arena, final int slot,
+                              final int generation) {
+            super(tokens);
+            this.arena = arena;
+            this.slot = slot;
+            this.generation = generation;
+        }
+
+        @Override
+        public String getIdToken() {
+            return arena.read(slot, generation, ID_TOKEN);
+        }
+
+        @Override
+        public String getAccessToken() {
+            return arena.read(slot, generation, ACCESS_TOKEN);
+        }
+
+        @Override
+        public String getRefreshToken() {
+            return arena.read(slot, generation, REFRESH_TOKEN);
+        }
+
+        /**
+         * Free the slot, the JWTs read as null afterwards.
+         */
+        void release() {
+            arena.release(slot, generation);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package csp.sample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Supplier;
+
+/**
+ * Handle to the latest tokens of a single credential, obtained once by
+ * {@link CSPTokensProvider#getTokenHandle(String)} and kept up to date by the refresh task.
+ * Reading the tokens costs a volatile load and a clock read, no map lookups or hashing of the credential.
+ */
+public final class TokenHandle {
+
+    private static final VarHandle ENTRY;
+
+    static {
+        try {
+            ENTRY = MethodHandles.lookup().findVarHandle(TokenHandle.class, "entry", CacheEntry.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Supplier<CSPTokens> loader;
+
+    @SuppressWarnings("unused")
+    private volatile CacheEntry entry;
+
+    TokenHandle(@NotNull final Supplier<CSPTokens> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Get the latest tokens. Blocks only if the handle has no valid tokens, e.g. after its credential was evicted
+     * from the cache or the refresh kept failing until the tokens passed hard expiry.
+     *
+     * @return csp tokens or null if there are no valid tokens and getting a new one failed
+     */
+    public CSPTokens current() {
+        CacheEntry current = (CacheEntry) ENTRY.getVolatile(this);
+        if (current != null && !current.isHardExpired(System.nanoTime())) {
+            return current.tokens;
+        }
+        return loader.get();
+    }
+
+    /**
+     * Replace the tokens unless the handle already holds newer ones.
+     *
+     * @param newer fetched tokens
+     */
+    void update(@NotNull final CacheEntry newer) {
+        while (true) {
+            CacheEntry current = (CacheEntry) ENTRY.getVolatile(this);
+            if (current != null && current.fetchedAt - newer.fetchedAt >= 0) {
+                return;
+            }
+            if (ENTRY.compareAndSet(this, current, newer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drop the tokens if they are past hard expiry.
+     *
+     * @param now current {@link System#nanoTime()}
+     */
+    void clearIfExpired(final long now) {
+        CacheEntry current = (CacheEntry) ENTRY.getVolatile(this);
+        if (current != null && current.isHardExpired(now)) {
+            ENTRY.compareAndSet(this, current, null);
+        }
+    }
+
+    /**
+     * Drop the tokens, the next read loads them again.
+     */
+    void clear() {
+        ENTRY.setVolatile(this, null);
+    }
+}
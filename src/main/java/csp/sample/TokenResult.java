@@ -0,0 +1,55 @@
+package csp.sample;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Result of a deadline-bounded token request.
+ */
+
+@Getter
+public class TokenResult {
+
+    /**
+     * Where the tokens came from.
+     */
+    public enum Status {
+        /**
+         * Fetched from CSP within the deadline.
+         */
+        FRESH,
+        /**
+         * Served from the cache, still valid.
+         */
+        CACHED,
+        /**
+         * No valid tokens: the fetch failed or did not finish within the deadline. A fetch still in flight keeps
+         * running and fills the cache for later callers.
+         */
+        NONE
+    }
+
+    private static final TokenResult NONE = new TokenResult(Status.NONE, null);
+
+    private final Status status;
+
+    private final CSPTokens tokens;
+
+    private TokenResult(@NotNull final Status status, @Nullable final CSPTokens tokens) {
+        this.status = status;
+        this.tokens = tokens;
+    }
+
+    static TokenResult fresh(@NotNull final CSPTokens tokens) {
+        return new TokenResult(Status.FRESH, tokens);
+    }
+
+    static TokenResult cached(@NotNull final CSPTokens tokens) {
+        return new TokenResult(Status.CACHED, tokens);
+    }
+
+    static TokenResult none() {
+        return NONE;
+    }
+}
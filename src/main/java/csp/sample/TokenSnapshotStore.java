@@ -0,0 +1,234 @@
+package csp.sample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only file with fetched tokens and their absolute expiry, used to warm up the cache after a restart.
+ * Records are keyed by a SHA-256 fingerprint of the credential and never contain the refresh token, which for API
+ * token grants is the API token itself, so no long-lived secret is written to disk. The access and ID tokens are, so
+ * the file is readable by its owner only.
+ * The latest record of a fingerprint wins; the file is compacted on load and whenever it grows well past the number
+ * of live records. A record which can't be decoded ends the snapshot, the records before it are kept and the rest is
+ * dropped by the compaction.
+ */
+class TokenSnapshotStore {
+
+    private static final Logger LOGGER = Logger.getLogger(TokenSnapshotStore.class.getName());
+
+    private static final int MAGIC = 0x43535054;
+    private static final int minCompactionRecords = 1000;
+    private static final int maxRecordBytes = 1 << 20;
+
+    private static final FileAttribute<Set<PosixFilePermission>> OWNER_ONLY =
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+
+    private final Path file;
+    private final ObjectMapper objectMapper;
+
+    private DataOutputStream out;
+    private int appended;
+    private int live;
+
+    /**
+     * Restored tokens with absolute expiry.
+     */
+    static final class Record {
+        final CSPTokens tokens;
+        final long expiresAt;
+
+        Record(@NotNull final CSPTokens tokens, final long expiresAt) {
+            this.tokens = tokens;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    TokenSnapshotStore(@NotNull final Path file, @NotNull final ObjectMapper objectMapper) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Read tokens which have not expired yet, compact the file and open it for appending. Snapshots are disabled only
+     * if the file can't be rewritten; an unreadable one is replaced by an empty snapshot.
+     *
+     * @return records keyed by credential fingerprint
+     */
+    synchronized Map<String, Record> load() {
+        Map<String, Record> records;
+        try {
+            records = read();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read token snapshot " + file + ", starting with an empty one", e);
+            records = new HashMap<>();
+        }
+        try {
+            rewrite(records);
+            return records;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to rewrite token snapshot " + file + ", snapshots disabled", e);
+            close();
+            return Map.of();
+        }
+    }
+
+    /**
+     * Append fetched tokens to the snapshot.
+     *
+     * @param fingerprint credential fingerprint
+     * @param tokens      fetched tokens
+     * @param expiresAt   token expiry in epoch milliseconds
+     */
+    synchronized void append(@NotNull final String fingerprint, @NotNull final CSPTokens tokens,
+                             final long expiresAt) {
+        if (out == null) {
+            return;
+        }
+        try {
+            writeRecord(out, fingerprint, tokens, expiresAt);
+            out.flush();
+            if (++appended > Math.max(minCompactionRecords, 2 * live)) {
+                out.close();
+                rewrite(read());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write token snapshot " + file + ", snapshots disabled", e);
+            close();
+        }
+    }
+
+    /**
+     * @param key cache key holding a credential
+     * @return hex encoded SHA-256 of the key
+     */
+    static String fingerprint(@NotNull final String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return latest not expired record of every fingerprint read before the end of the file or the first record
+     * which can't be decoded
+     * @throws IOException if the file can't be opened
+     */
+    private Map<String, Record> read() throws IOException {
+        Map<String, Record> records = new HashMap<>();
+        if (!Files.exists(file)) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a token snapshot");
+                }
+                while (true) {
+                    String fingerprint = in.readUTF();
+                    long expiresAt = in.readLong();
+                    int length = in.readInt();
+                    if (length < 0 || length > maxRecordBytes) {
+                        throw new IOException("Invalid record length " + length);
+                    }
+                    byte[] json = new byte[length];
+                    in.readFully(json);
+                    CSPTokens tokens = objectMapper.readValue(json, CSPTokens.class);
+                    tokens.setExpiresAt(expiresAt);
+                    records.put(fingerprint, new Record(tokens, expiresAt));
+                }
+            } catch (EOFException e) {
+                // End of the snapshot, possibly in the middle of a record written by a killed process.
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Token snapshot " + file + " is corrupt after " + records.size()
+                        + " records, dropping the rest", e);
+            }
+        }
+        long now = System.currentTimeMillis();
+        records.values().removeIf(record -> record.expiresAt <= now);
+        return records;
+    }
+
+    /**
+     * Replace the file with the given records and reopen it for appending.
+     */
+    private void rewrite(@NotNull final Map<String, Record> records) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        createOwnerOnly(temp);
+        try (DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)))) {
+            tempOut.writeInt(MAGIC);
+            for (Map.Entry<String, Record> record : records.entrySet()) {
+                writeRecord(tempOut, record.getKey(), record.getValue().tokens, record.getValue().expiresAt);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+        appended = 0;
+        live = records.size();
+    }
+
+    /**
+     * Create an empty file only its owner can read, the replaced snapshot takes its permissions over.
+     */
+    private static void createOwnerOnly(@NotNull final Path path) throws IOException {
+        try {
+            Files.createFile(path, OWNER_ONLY);
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, the file inherits the permissions of its directory.
+            Files.createFile(path);
+        }
+    }
+
+    private void writeRecord(@NotNull final DataOutputStream stream, @NotNull final String fingerprint,
+                             @NotNull final CSPTokens tokens, final long expiresAt) throws IOException {
+        ObjectNode record = objectMapper.valueToTree(tokens);
+        record.remove("refresh_token");
+        byte[] json = objectMapper.writeValueAsBytes(record);
+        stream.writeUTF(fingerprint);
+        stream.writeLong(expiresAt);
+        stream.writeInt(json.length);
+        stream.write(json);
+    }
+
+    private void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close token snapshot " + file, e);
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedFanOutTest {
+
+    @Test
+    void completesEmptyListRightAway() {
+        CompletableFuture<Map<String, String>> done = BoundedFanOut.run(List.of(), 4,
+                item -> new CompletableFuture<>());
+
+        assertTrue(done.isDone());
+        assertTrue(done.join().isEmpty());
+    }
+
+    @Test
+    void keepsAtMostConcurrencyTasksInFlight() {
+        List<CompletableFuture<Integer>> started = new ArrayList<>();
+        List<Integer> items = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+
+        CompletableFuture<Map<Integer, Integer>> done = BoundedFanOut.run(items, 3, item -> {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            started.add(future);
+            return future;
+        });
+
+        assertEquals(3, started.size());
+        // Each completion starts exactly one more task.
+        for (int i = 0; i < items.size(); i++) {
+            assertFalse(done.isDone());
+            started.get(i).complete(i * 10);
+            assertEquals(Math.min(i + 4, items.size()), started.size());
+        }
+        assertTrue(done.isDone());
+    }
+
+    @Test
+    void ordersResultsByItem() {
+        List<CompletableFuture<String>> started = new ArrayList<>();
+        List<String> items = List.of("a", "b", "c");
+
+        CompletableFuture<Map<String, String>> done = BoundedFanOut.run(items, 3, item -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            started.add(future);
+            return future;
+        });
+        started.get(2).complete("C");
+        started.get(0).complete("A");
+        started.get(1).complete("B");
+
+        assertEquals(List.of("a", "b", "c"), new ArrayList<>(done.join().keySet()));
+        assertEquals(List.of("A", "B", "C"), new ArrayList<>(done.join().values()));
+    }
+
+    @Test
+    void failedTasksYieldNull() {
+        CompletableFuture<Map<String, String>> done = BoundedFanOut.run(List.of("ok", "failed", "thrown"), 2,
+                item -> {
+                    if (item.equals("thrown")) {
+                        throw new IllegalStateException(item);
+                    }
+                    return item.equals("failed") ?
+                            CompletableFuture.failedFuture(new IllegalStateException(item)) :
+                            CompletableFuture.completedFuture(item.toUpperCase());
+                });
+
+        assertEquals("OK", done.join().get("ok"));
+        assertNull(done.join().get("failed"));
+        assertNull(done.join().get("thrown"));
+        assertEquals(3, done.join().size());
+    }
+
+    @Test
+    void runsLongListOfSynchronousTasks() {
+        AtomicInteger calls = new AtomicInteger();
+        List<Integer> items = IntStream.range(0, 100_000).boxed().collect(Collectors.toList());
+
+        CompletableFuture<Map<Integer, Integer>> done = BoundedFanOut.run(items, 1,
+                item -> CompletableFuture.completedFuture(calls.incrementAndGet()));
+
+        assertEquals(100_000, done.join().size());
+        assertEquals(100_000, calls.get());
+    }
+}
@@ -0,0 +1,83 @@
+package csp.sample;
+
+import okhttp3.*;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CSPAuthenticatorTest {
+
+    @Test
+    void requestsRejectedWithSameTokenShareOneRefresh() throws Exception {
+        FakeCsp csp = new FakeCsp();
+        CSPAuthenticator authenticator = csp.provider(CSPTokensProviderConfig.builder().
+                minForcedRefreshInterval(Duration.ZERO)).authenticator("api-token");
+
+        Request first = authorized(authenticator);
+        Request second = authorized(authenticator);
+        assertEquals("Bearer access-1", first.header("Authorization"));
+
+        Request firstReplay = authenticator.authenticate(null, unauthorized(first));
+        Request secondReplay = authenticator.authenticate(null, unauthorized(second));
+
+        assertEquals("Bearer access-2", firstReplay.header("Authorization"));
+        assertEquals("Bearer access-2", secondReplay.header("Authorization"));
+        assertEquals(2, csp.calls.get());
+    }
+
+    @Test
+    void keepsTokensFetchedJustNow() throws Exception {
+        FakeCsp csp = new FakeCsp();
+        CSPAuthenticator authenticator = csp.provider(CSPTokensProviderConfig.builder().
+                minForcedRefreshInterval(Duration.ofMinutes(1))).authenticator("api-token");
+
+        assertNull(authenticator.authenticate(null, unauthorized(authorized(authenticator))));
+        assertEquals(1, csp.calls.get());
+    }
+
+    @Test
+    void leavesCallersAuthorizationAlone() throws Exception {
+        FakeCsp csp = new FakeCsp();
+        CSPAuthenticator authenticator = csp.provider(CSPTokensProviderConfig.builder()).authenticator("api-token");
+        Request own = new Request.Builder().url("https://api.example.com/").
+                header("Authorization", "Bearer own").
+                build();
+
+        assertNull(authenticator.authenticate(null, unauthorized(own)));
+        assertEquals(0, csp.calls.get());
+    }
+
+    /**
+     * @return the request as the interceptor sends it on
+     */
+    private static Request authorized(final CSPAuthenticator authenticator) throws Exception {
+        Request[] sent = new Request[1];
+        OkHttpClient client = new OkHttpClient.Builder().
+                addInterceptor(authenticator).
+                addInterceptor(chain -> {
+                    sent[0] = chain.request();
+                    return new Response.Builder().
+                            request(chain.request()).
+                            protocol(Protocol.HTTP_1_1).
+                            code(200).
+                            message("OK").
+                            body(ResponseBody.create("", null)).
+                            build();
+                }).
+                build();
+        client.newCall(new Request.Builder().url("https://api.example.com/").build()).execute().close();
+        return sent[0];
+    }
+
+    private static Response unauthorized(final Request request) {
+        return new Response.Builder().
+                request(request).
+                protocol(Protocol.HTTP_1_1).
+                code(401).
+                message("Unauthorized").
+                build();
+    }
+}
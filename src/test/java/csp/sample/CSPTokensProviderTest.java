@@ -0,0 +1,112 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CSPTokensProviderTest {
+
+    @Test
+    void concurrentCallersShareOneFetch() {
+        FakeCsp csp = new FakeCsp();
+        CountDownLatch gate = new CountDownLatch(1);
+        csp.gate = gate;
+        CSPTokensProvider provider = csp.provider(CSPTokensProviderConfig.builder());
+
+        List<CompletableFuture<CSPTokens>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(provider.getTokenAsync("api-token"));
+        }
+        gate.countDown();
+
+        for (CompletableFuture<CSPTokens> future : futures) {
+            assertEquals("access-1", future.join().getAccessToken());
+        }
+        assertEquals(1, csp.calls.get());
+        assertEquals("access-1", provider.getToken("api-token").getAccessToken());
+        assertEquals(1, csp.calls.get());
+    }
+
+    @Test
+    void failedFetchBacksOffInsteadOfRetryingOnEveryCall() {
+        FakeCsp csp = new FakeCsp();
+        csp.status = 500;
+        CSPTokensProvider provider = csp.provider(CSPTokensProviderConfig.builder());
+
+        assertNull(provider.getToken("api-token"));
+        csp.status = 200;
+        assertNull(provider.getToken("api-token"));
+        assertNull(provider.getTokenAsync("api-token").join());
+
+        assertEquals(1, csp.calls.get());
+        assertEquals("access-2", provider.getToken("other-api-token").getAccessToken());
+    }
+
+    @Test
+    void evictedCredentialIsFetchedAgain() throws InterruptedException {
+        FakeCsp csp = new FakeCsp();
+        CSPTokensProvider provider = csp.provider(CSPTokensProviderConfig.builder().maxCachedKeys(1));
+
+        provider.getToken("first-api-token");
+        provider.getToken("second-api-token");
+        // Caffeine evicts on its maintenance thread.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (provider.getEvictionCount() == 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, provider.getEvictionCount());
+
+        // Whichever was evicted is fetched again, and may in turn evict the other one.
+        assertNotNull(provider.getToken("first-api-token"));
+        assertNotNull(provider.getToken("second-api-token"));
+        assertTrue(csp.calls.get() >= 3, "calls " + csp.calls.get());
+    }
+
+    @Test
+    void servesTokensFetchedJustNowEvenIfShorterLivedThanRequested() {
+        FakeCsp csp = new FakeCsp();
+        CSPTokensProvider provider = csp.provider(CSPTokensProviderConfig.builder());
+
+        assertEquals("access-1", provider.getTokenValidFor("api-token", Duration.ofHours(1)).getAccessToken());
+        assertEquals("access-1", provider.getTokenValidFor("api-token", Duration.ofHours(1)).getAccessToken());
+        assertEquals(1, csp.calls.get());
+    }
+
+    @Test
+    void refetchesOlderTokensExpiringTooSoon() {
+        FakeCsp csp = new FakeCsp();
+        CSPTokensProvider provider = csp.provider(CSPTokensProviderConfig.builder().
+                minForcedRefreshInterval(Duration.ZERO));
+
+        assertEquals("access-1", provider.getTokenValidFor("api-token", Duration.ofMinutes(1)).getAccessToken());
+        assertEquals("access-1", provider.getTokenValidFor("api-token", Duration.ofMinutes(1)).getAccessToken());
+        assertEquals("access-2", provider.getTokenValidFor("api-token", Duration.ofHours(1)).getAccessToken());
+        assertEquals(2, csp.calls.get());
+    }
+
+    @Test
+    void warmUpReportsCredentialsWithoutSecrets() {
+        FakeCsp csp = new FakeCsp();
+        CSPTokensProvider provider = csp.provider(CSPTokensProviderConfig.builder());
+        provider.register("secret-api-token");
+        provider.registerAll("app", "app-secret", List.of("org-1", "org-2"));
+
+        Map<String, Boolean> results = provider.warmUp().join();
+
+        assertEquals(Map.of(provider.credentialKey("secret-api-token").getId(), true, "app/org-1", true,
+                "app/org-2", true), results);
+        assertTrue(results.keySet().stream().noneMatch(id -> id.contains("secret")));
+        assertEquals(3, csp.calls.get());
+    }
+}
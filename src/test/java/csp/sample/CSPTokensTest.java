@@ -0,0 +1,73 @@
+package csp.sample;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CSPTokensTest {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    @Test
+    void readsTokenResponse() throws IOException {
+        String accessToken = "eyJhbGciOiJSUzI1NiJ9." + Base64.getUrlEncoder().withoutPadding().encodeToString(
+                "{\"sub\":\"user\",\"context_name\":\"org\"}".getBytes(StandardCharsets.UTF_8)) + ".signature";
+        long before = System.currentTimeMillis();
+
+        CSPTokens tokens = read("{\"id_token\":\"id\",\"token_type\":\"bearer\",\"expires_in\":1799,"
+                + "\"scope\":\"openid offline_access\",\"access_token\":\"" + accessToken + "\","
+                + "\"refresh_token\":\"refresh\"}");
+
+        assertEquals("id", tokens.getIdToken());
+        assertSame("bearer", tokens.getTokenType());
+        assertEquals(1799, tokens.getExpiresIn());
+        assertTrue(tokens.getExpiresAt() >= before + 1_799_000);
+        assertTrue(tokens.hasScope("offline_access"));
+        assertEquals(accessToken, tokens.getAccessToken());
+        assertEquals("refresh", tokens.getRefreshToken());
+        assertEquals("org", tokens.getClaims().getOrgId());
+    }
+
+    @Test
+    void skipsUnknownFields() throws IOException {
+        CSPTokens tokens = read("{\"unknown\":{\"access_token\":\"nested\",\"list\":[{},[]]},"
+                + "\"access_token\":\"opaque\",\"extra\":[1,2,3]}");
+
+        assertEquals("opaque", tokens.getAccessToken());
+        assertNull(tokens.getRefreshToken());
+        assertNull(tokens.getScope());
+        assertSame(JwtClaims.EMPTY, tokens.getClaims());
+    }
+
+    @Test
+    void rejectsNonObjectResponse() {
+        assertThrows(IOException.class, () -> read("[\"access_token\"]"));
+        assertThrows(IOException.class, () -> read(""));
+    }
+
+    @Test
+    void dropsUnusedTokens() throws IOException {
+        CSPTokens tokens = read("{\"id_token\":\"id\",\"access_token\":\"access\",\"refresh_token\":\"refresh\"}").
+                project(false, false);
+
+        assertNull(tokens.getIdToken());
+        assertNull(tokens.getRefreshToken());
+        assertEquals("access", tokens.getAccessToken());
+    }
+
+    private static CSPTokens read(final String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return CSPTokens.read(parser);
+        }
+    }
+}
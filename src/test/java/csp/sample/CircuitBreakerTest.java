@@ -0,0 +1,80 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    private static final long openNanos = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("csp", 3, openNanos, 0);
+
+        fail(breaker, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        fail(breaker, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void letsSingleProbeThroughAfterOpenDuration() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("csp", 1, openNanos, 0);
+        fail(breaker, 1);
+
+        TimeUnit.NANOSECONDS.sleep(openNanos);
+
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedProbeOpensAgain() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("csp", 3, openNanos, 0);
+        fail(breaker, 3);
+        TimeUnit.NANOSECONDS.sleep(openNanos);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertFalse(breaker.tryAcquire());
+        TimeUnit.NANOSECONDS.sleep(openNanos);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void rampsUpAdmittedShareAfterRecovery() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("csp", 1, openNanos, TimeUnit.SECONDS.toNanos(10));
+        fail(breaker, 1);
+        TimeUnit.NANOSECONDS.sleep(openNanos);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+
+        int admitted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (breaker.tryAcquire()) {
+                admitted++;
+            }
+        }
+        // Right after recovery only a small share of the ramp-up has passed.
+        assertTrue(admitted < 200, "admitted " + admitted);
+    }
+
+    private static void fail(final CircuitBreaker breaker, final int failures) {
+        for (int i = 0; i < failures; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CredentialTest {
+
+    @Test
+    void equalCredentialsHashAlike() {
+        assertEquals(Credential.apiToken("token"), Credential.apiToken(new String("token")));
+        assertEquals(Credential.apiToken("token").hashCode(), Credential.apiToken(new String("token")).hashCode());
+        assertEquals(Credential.oauthApp("app", "secret", "org"), Credential.oauthApp("app", "secret", "org"));
+        assertEquals(Credential.oauthApp("app", "secret", null), Credential.oauthApp("app", "secret", null));
+    }
+
+    @Test
+    void differsByEveryPartOfIdentity() {
+        Credential credential = Credential.oauthApp("app", "secret", "org");
+
+        assertNotEquals(credential, Credential.oauthApp("other-app", "secret", "org"));
+        assertNotEquals(credential, Credential.oauthApp("app", "secret", "other-org"));
+        assertNotEquals(credential, Credential.oauthApp("app", "secret", null));
+        assertNotEquals(Credential.apiToken("app/org"), Credential.oauthApp("app", "secret", "org"));
+    }
+
+    @Test
+    void rotatedSecretIsAnotherCredential() {
+        Credential credential = Credential.oauthApp("app", "secret", "org");
+        Credential rotated = Credential.oauthApp("app", "rotated-secret", "org");
+
+        assertNotEquals(credential, rotated);
+        assertNotEquals(credential.key(), rotated.key());
+    }
+}
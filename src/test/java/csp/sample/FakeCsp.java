@@ -0,0 +1,57 @@
+package csp.sample;
+
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CSP stand-in answering token requests from an interceptor, so provider tests run without network. Every successful
+ * response carries a new access token, "access-1", "access-2" and so on.
+ */
+final class FakeCsp implements Interceptor {
+
+    final AtomicInteger calls = new AtomicInteger();
+
+    volatile int status = 200;
+
+    volatile long expiresIn = 1799;
+
+    /**
+     * Responses wait until the latch opens, if set.
+     */
+    volatile CountDownLatch gate;
+
+    OkHttpClient client() {
+        return new OkHttpClient.Builder().addInterceptor(this).build();
+    }
+
+    CSPTokensProvider provider(@NotNull final CSPTokensProviderConfig.Builder config) {
+        return new CSPTokensProvider(config.build(), client());
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        int call = calls.incrementAndGet();
+        CountDownLatch gate = this.gate;
+        if (gate != null) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        String body = status != 200 ? "{}" : "{\"access_token\":\"access-" + call + "\",\"token_type\":\"bearer\","
+                + "\"expires_in\":" + expiresIn + ",\"refresh_token\":\"refresh-" + call + "\"}";
+        return new Response.Builder().
+                request(chain.request()).
+                protocol(Protocol.HTTP_1_1).
+                code(status).
+                message("fake").
+                body(ResponseBody.create(body, MediaType.get("application/json"))).
+                build();
+    }
+}
@@ -0,0 +1,68 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FetchQueueTest {
+
+    @Test
+    void startsFetchRightAwayWithinBudget() {
+        FetchQueue queue = new FetchQueue(new RateLimiter(1, 2));
+        List<String> started = new ArrayList<>();
+
+        queue.submit(System.nanoTime(), () -> started.add("first"));
+        queue.submit(System.nanoTime(), () -> started.add("second"));
+
+        assertEquals(List.of("first", "second"), started);
+        assertEquals(2, queue.getAdmittedCount());
+        assertEquals(0, queue.getDelayedCount());
+    }
+
+    @Test
+    void admitsWaitingFetchesByDeadline() throws InterruptedException {
+        FetchQueue queue = new FetchQueue(new RateLimiter(10, 1));
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(5);
+        long now = System.nanoTime();
+
+        queue.submit(now, () -> {
+            started.add("immediate");
+            done.countDown();
+        });
+        for (int deadline : new int[]{30, 10, 40, 20}) {
+            queue.submit(now + TimeUnit.SECONDS.toNanos(deadline), () -> {
+                started.add("deadline-" + deadline);
+                done.countDown();
+            });
+        }
+        assertEquals(4, queue.getQueueDepth());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("immediate", "deadline-10", "deadline-20", "deadline-30", "deadline-40"), started);
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(4, queue.getDelayedCount());
+    }
+
+    @Test
+    void keepsAdmittingAfterFailedFetch() throws InterruptedException {
+        FetchQueue queue = new FetchQueue(new RateLimiter(20, 1));
+        CountDownLatch done = new CountDownLatch(1);
+
+        queue.submit(System.nanoTime(), () -> {
+        });
+        queue.submit(System.nanoTime(), () -> {
+            throw new IllegalStateException("failed to start");
+        });
+        queue.submit(System.nanoTime(), done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
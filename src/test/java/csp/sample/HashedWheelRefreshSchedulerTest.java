@@ -0,0 +1,96 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedWheelRefreshSchedulerTest {
+
+    private static final long tickNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void runsTaskNotBeforeItsDelay() throws InterruptedException {
+        HashedWheelRefreshScheduler scheduler = new HashedWheelRefreshScheduler(tickNanos, 64);
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicLong ranAt = new AtomicLong();
+        long start = System.nanoTime();
+
+        scheduler.schedule(() -> {
+            ranAt.set(System.nanoTime());
+            ran.countDown();
+        }, 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(ranAt.get() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    void runsTaskSeveralRoundsAhead() throws InterruptedException {
+        // 4 buckets of 1 ms, the task waits in its bucket for 12 rounds.
+        HashedWheelRefreshScheduler scheduler = new HashedWheelRefreshScheduler(tickNanos, 4);
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicLong ranAt = new AtomicLong();
+        long start = System.nanoTime();
+
+        scheduler.schedule(() -> {
+            ranAt.set(System.nanoTime());
+            ran.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(ranAt.get() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void cancelledTaskNeverRuns() throws InterruptedException {
+        HashedWheelRefreshScheduler scheduler = new HashedWheelRefreshScheduler(tickNanos, 4);
+        AtomicBoolean beforeTransfer = new AtomicBoolean();
+        AtomicBoolean inWheel = new AtomicBoolean();
+
+        scheduler.schedule(() -> beforeTransfer.set(true), 30, TimeUnit.MILLISECONDS).cancel();
+        RefreshScheduler.Task task = scheduler.schedule(() -> inWheel.set(true), 60, TimeUnit.MILLISECONDS);
+        Thread.sleep(20);
+        task.cancel();
+        Thread.sleep(100);
+
+        assertFalse(beforeTransfer.get());
+        assertFalse(inWheel.get());
+    }
+
+    @Test
+    void runsLateTaskOnNextTick() throws InterruptedException {
+        HashedWheelRefreshScheduler scheduler = new HashedWheelRefreshScheduler(tickNanos, 64);
+        CountDownLatch ran = new CountDownLatch(2);
+
+        scheduler.schedule(ran::countDown, -1, TimeUnit.SECONDS);
+        scheduler.schedule(ran::countDown, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void keepsRunningAfterFailedTask() throws InterruptedException {
+        HashedWheelRefreshScheduler scheduler = new HashedWheelRefreshScheduler(tickNanos, 64);
+        CountDownLatch ran = new CountDownLatch(1);
+
+        scheduler.schedule(() -> {
+            throw new IllegalStateException("refresh failed");
+        }, 1, TimeUnit.MILLISECONDS);
+        scheduler.schedule(ran::countDown, 5, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void rejectsInvalidWheel() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelRefreshScheduler(0, 64));
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelRefreshScheduler(tickNanos, 0));
+    }
+}
@@ -0,0 +1,91 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class JwtClaimsTest {
+
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+    @Test
+    void decodesPayloadOfEveryLength() {
+        Random random = new Random(42);
+        for (int length = 0; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            assertArrayEquals(bytes, JwtClaims.payload(jwt(encoder.encodeToString(bytes))), "length " + length);
+        }
+    }
+
+    @Test
+    void decodesUrlSafeAlphabet() {
+        // Bytes encoding to '-' and '_', which the standard alphabet writes as '+' and '/'.
+        byte[] bytes = {(byte) 0xfb, (byte) 0xff, (byte) 0xbf};
+
+        assertEquals("-_-_", encoder.encodeToString(bytes));
+        assertArrayEquals(bytes, JwtClaims.payload(jwt("-_-_")));
+    }
+
+    @Test
+    void acceptsPadding() {
+        byte[] bytes = "{}".getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(bytes, JwtClaims.payload(jwt(Base64.getUrlEncoder().encodeToString(bytes))));
+    }
+
+    @Test
+    void rejectsStandardAlphabetAndGarbage() {
+        assertNull(JwtClaims.payload(jwt("-_+/")));
+        assertNull(JwtClaims.payload(jwt("e30 ")));
+    }
+
+    @Test
+    void rejectsTokensWithoutPayload() {
+        assertNull(JwtClaims.payload(null));
+        assertNull(JwtClaims.payload("opaque-token"));
+        assertNull(JwtClaims.payload("header.payload"));
+        assertArrayEquals(new byte[0], JwtClaims.payload("header..signature"));
+    }
+
+    @Test
+    void decodesClaims() {
+        String payload = "{\"sub\":\"user\",\"exp\":1700000000,\"context\":\"ctx\",\"context_name\":\"org\","
+                + "\"perms\":[\"csp:org_member\",\"external/service/role\"],\"acct\":{\"nested\":[1,2]}}";
+
+        JwtClaims claims = JwtClaims.decode(jwtWithClaims(payload));
+
+        assertEquals("user", claims.getSubject());
+        assertEquals(1700000000L, claims.getExpiration());
+        assertEquals("ctx", claims.getContext());
+        assertEquals("org", claims.getOrgId());
+        assertEquals(List.of("csp:org_member", "external/service/role"), claims.getPerms());
+        assertEquals("org", JwtClaims.claim(jwtWithClaims(payload), "context_name"));
+        assertNull(JwtClaims.claim(jwtWithClaims(payload), "acct"));
+        assertNull(JwtClaims.claim(jwtWithClaims(payload), "missing"));
+    }
+
+    @Test
+    void malformedClaimsDecodeToNoClaims() {
+        assertSame(JwtClaims.EMPTY, JwtClaims.decode("opaque-token"));
+        assertSame(JwtClaims.EMPTY, JwtClaims.decode(jwtWithClaims("[1,2]")));
+        assertSame(JwtClaims.EMPTY, JwtClaims.decode(jwtWithClaims("{\"sub\":")));
+    }
+
+    private static String jwt(final String payload) {
+        return "eyJhbGciOiJSUzI1NiJ9." + payload + ".signature";
+    }
+
+    private static String jwtWithClaims(final String claims) {
+        return jwt(encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8)));
+    }
+}
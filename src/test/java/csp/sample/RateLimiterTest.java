@@ -0,0 +1,87 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    @Test
+    void admitsBurstThenWaitsForInterval() {
+        RateLimiter rateLimiter = new RateLimiter(1, 3);
+
+        assertEquals(0, rateLimiter.tryAcquire());
+        assertEquals(0, rateLimiter.tryAcquire());
+        assertEquals(0, rateLimiter.tryAcquire());
+
+        long wait = rateLimiter.tryAcquire();
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(900), "wait " + wait);
+        assertTrue(wait <= TimeUnit.SECONDS.toNanos(1), "wait " + wait);
+    }
+
+    @Test
+    void deniedAttemptTakesNoPermit() {
+        RateLimiter rateLimiter = new RateLimiter(1, 1);
+
+        assertEquals(0, rateLimiter.tryAcquire());
+        long first = rateLimiter.tryAcquire();
+        long second = rateLimiter.tryAcquire();
+
+        assertTrue(first > 0);
+        assertTrue(second > 0 && second <= first);
+    }
+
+    @Test
+    void admitsAgainAfterInterval() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(100, 1);
+
+        assertEquals(0, rateLimiter.tryAcquire());
+        long wait = rateLimiter.tryAcquire();
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(10), "wait " + wait);
+
+        TimeUnit.NANOSECONDS.sleep(wait);
+        assertEquals(0, rateLimiter.tryAcquire());
+    }
+
+    @Test
+    void pauseHoldsEveryPermit() {
+        RateLimiter rateLimiter = new RateLimiter(1000, 10);
+
+        rateLimiter.pauseUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500));
+
+        long wait = rateLimiter.tryAcquire();
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400), "wait " + wait);
+        assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(500), "wait " + wait);
+    }
+
+    @Test
+    void earlierPauseDoesNotShortenLongerOne() {
+        RateLimiter rateLimiter = new RateLimiter(1000, 10);
+        long now = System.nanoTime();
+
+        rateLimiter.pauseUntil(now + TimeUnit.MILLISECONDS.toNanos(500));
+        rateLimiter.pauseUntil(now + TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertTrue(rateLimiter.tryAcquire() > TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    void pauseInThePastChangesNothing() {
+        RateLimiter rateLimiter = new RateLimiter(1, 2);
+
+        rateLimiter.pauseUntil(System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+
+        assertEquals(0, rateLimiter.tryAcquire());
+        assertEquals(0, rateLimiter.tryAcquire());
+    }
+
+    @Test
+    void rejectsInvalidRate() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(1, 0));
+    }
+}
@@ -0,0 +1,57 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefreshSpreaderTest {
+
+    @Test
+    void movesRefreshEarlierWithinWindow() {
+        RefreshSpreader spreader = new RefreshSpreader(60);
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(30);
+
+        for (int i = 0; i < 1000; i++) {
+            long spread = deadline - spreader.spread(deadline);
+
+            assertTrue(spread >= 0 && spread <= TimeUnit.SECONDS.toNanos(60), "moved by " + spread);
+            assertEquals(0, spread % TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    @Test
+    void keepsShortDelaysShort() {
+        RefreshSpreader spreader = new RefreshSpreader(60);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        for (int i = 0; i < 100; i++) {
+            long spread = deadline - spreader.spread(deadline);
+
+            assertTrue(spread >= 0 && spread <= TimeUnit.SECONDS.toNanos(5), "moved by " + spread);
+        }
+        long now = System.nanoTime();
+        assertEquals(now, new RefreshSpreader(60).spread(now));
+        assertEquals(deadline, new RefreshSpreader(0).spread(deadline));
+    }
+
+    @Test
+    void spreadsRefreshesPlannedForSameSecond() {
+        RefreshSpreader spreader = new RefreshSpreader(60);
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(30);
+
+        for (int i = 0; i < 610; i++) {
+            spreader.spread(deadline);
+        }
+
+        SortedMap<Long, Long> distribution = spreader.distribution();
+        assertEquals(610, distribution.values().stream().mapToLong(Long::longValue).sum());
+        // 61 candidate seconds, picking the less loaded of two keeps every second near the mean of 10.
+        assertTrue(distribution.size() >= 55, "seconds used " + distribution.size());
+        assertTrue(Collections.max(distribution.values()) <= 20, "peak " + Collections.max(distribution.values()));
+    }
+}
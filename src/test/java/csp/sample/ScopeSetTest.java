@@ -0,0 +1,58 @@
+package csp.sample;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScopeSetTest {
+
+    @Test
+    void containsParsedScopes() {
+        ScopeSet scopes = ScopeSet.parse("openid  group_names offline_access");
+
+        assertTrue(scopes.contains("openid"));
+        assertTrue(scopes.contains("group_names"));
+        assertTrue(scopes.contains("offline_access"));
+        assertFalse(scopes.contains(""));
+        assertFalse(scopes.contains("scope-never-seen-by-any-token"));
+    }
+
+    @Test
+    void sharesSetOfEqualScopeStrings() {
+        String scope = "openid customer_number";
+
+        assertSame(ScopeSet.parse(scope), ScopeSet.parse(new String(scope)));
+        assertNull(ScopeSet.parse(null));
+    }
+
+    @Test
+    void containsAllRequiredScopes() {
+        ScopeSet granted = ScopeSet.parse("openid ea:write ea:read");
+
+        assertTrue(granted.containsAll(ScopeSet.of("ea:read", "openid")));
+        assertTrue(granted.containsAll(ScopeSet.of()));
+        assertFalse(granted.containsAll(ScopeSet.of("ea:read", "ea:admin")));
+        assertFalse(ScopeSet.EMPTY.containsAll(ScopeSet.of("openid")));
+        assertTrue(ScopeSet.EMPTY.containsAll(ScopeSet.EMPTY));
+    }
+
+    @Test
+    void growsPastOneWord() {
+        StringBuilder scope = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            scope.append("wide-scope-").append(i).append(' ');
+        }
+        ScopeSet wide = ScopeSet.parse(scope.toString());
+        ScopeSet narrow = ScopeSet.parse("wide-scope-0");
+
+        assertTrue(wide.contains("wide-scope-0"));
+        assertTrue(wide.contains("wide-scope-199"));
+        assertTrue(wide.containsAll(ScopeSet.of("wide-scope-3", "wide-scope-150")));
+        assertTrue(narrow.containsAll(ScopeSet.of("wide-scope-0")));
+        assertFalse(narrow.contains("wide-scope-199"));
+        assertFalse(narrow.containsAll(ScopeSet.of("wide-scope-0", "wide-scope-199")));
+    }
+}
@@ -0,0 +1,82 @@
+package csp.sample;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TokenArenaTest {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    @Test
+    void readsStoredTokens() throws IOException {
+        TokenArena arena = new TokenArena(2, 256);
+
+        CSPTokens stored = arena.store(tokens("access", "refresh"));
+
+        assertInstanceOf(TokenArena.OffHeapTokens.class, stored);
+        assertEquals("access", stored.getAccessToken());
+        assertEquals("refresh", stored.getRefreshToken());
+        assertNull(stored.getIdToken());
+        assertEquals(1, arena.usedSlots());
+    }
+
+    @Test
+    void releasedTokensReadAsNull() throws IOException {
+        TokenArena arena = new TokenArena(1, 256);
+        TokenArena.OffHeapTokens stored = (TokenArena.OffHeapTokens) arena.store(tokens("access", "refresh"));
+
+        stored.release();
+        stored.release();
+
+        assertNull(stored.getAccessToken());
+        assertNull(stored.getRefreshToken());
+        assertEquals(0, arena.usedSlots());
+    }
+
+    @Test
+    void reusesReleasedSlotWithoutLeakingNewTokensToStaleReaders() throws IOException {
+        TokenArena arena = new TokenArena(1, 256);
+        TokenArena.OffHeapTokens first = (TokenArena.OffHeapTokens) arena.store(tokens("first", null));
+        first.release();
+
+        CSPTokens second = arena.store(tokens("second", null));
+
+        assertInstanceOf(TokenArena.OffHeapTokens.class, second);
+        assertEquals("second", second.getAccessToken());
+        assertNull(first.getAccessToken());
+        // The stale handle can't free the slot of the new tokens either.
+        first.release();
+        assertEquals("second", second.getAccessToken());
+        assertEquals(1, arena.usedSlots());
+    }
+
+    @Test
+    void keepsTokensOnHeapWhenFullOrTooLarge() throws IOException {
+        TokenArena arena = new TokenArena(1, 32);
+        CSPTokens large = tokens("x".repeat(64), null);
+        CSPTokens nonLatin1 = tokens("\u20ac", null);
+
+        assertSame(large, arena.store(large));
+        assertSame(nonLatin1, arena.store(nonLatin1));
+        assertNotSame(tokens("a", null), arena.store(tokens("a", null)));
+        CSPTokens overflow = tokens("b", null);
+        assertSame(overflow, arena.store(overflow));
+    }
+
+    private static CSPTokens tokens(final String accessToken, final String refreshToken) throws IOException {
+        String json = "{\"access_token\":\"" + accessToken + "\",\"expires_in\":1799"
+                + (refreshToken == null ? "" : ",\"refresh_token\":\"" + refreshToken + "\"") + "}";
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return CSPTokens.read(parser);
+        }
+    }
+}
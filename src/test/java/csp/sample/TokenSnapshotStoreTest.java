@@ -0,0 +1,132 @@
+package csp.sample;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenSnapshotStoreTest {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresLatestTokensWithoutRefreshToken() throws IOException {
+        Path file = dir.resolve("snapshot");
+        long expiresAt = System.currentTimeMillis() + 600_000;
+        TokenSnapshotStore store = store(file);
+        assertTrue(store.load().isEmpty());
+
+        store.append("a", tokens("a-1"), expiresAt);
+        store.append("a", tokens("a-2"), expiresAt);
+        store.append("b", tokens("b-1"), expiresAt);
+        store.append("expired", tokens("expired-1"), System.currentTimeMillis() - 1);
+
+        Map<String, TokenSnapshotStore.Record> records = store(file).load();
+        assertEquals(2, records.size());
+        assertEquals("a-2", records.get("a").tokens.getAccessToken());
+        assertNull(records.get("a").tokens.getRefreshToken());
+        assertEquals(expiresAt, records.get("b").expiresAt);
+    }
+
+    @Test
+    void compactsWhileAppending() throws IOException {
+        Path file = dir.resolve("snapshot");
+        TokenSnapshotStore store = store(file);
+        store.load();
+        long expiresAt = System.currentTimeMillis() + 600_000;
+
+        store.append("a", tokens("a-0"), expiresAt);
+        long recordSize = Files.size(file) - Integer.BYTES;
+        for (int i = 1; i <= 5000; i++) {
+            store.append("a", tokens("a-" + i), expiresAt);
+        }
+
+        assertTrue(Files.size(file) < 2000 * recordSize, "snapshot of " + Files.size(file) + " bytes");
+        assertEquals("a-5000", store(file).load().get("a").tokens.getAccessToken());
+    }
+
+    @Test
+    void keepsRecordsBeforeTruncatedOne() throws IOException {
+        Path file = dir.resolve("snapshot");
+        long expiresAt = System.currentTimeMillis() + 600_000;
+        TokenSnapshotStore store = store(file);
+        store.load();
+        store.append("a", tokens("a-1"), expiresAt);
+        store.append("b", tokens("b-1"), expiresAt);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        Map<String, TokenSnapshotStore.Record> records = store(file).load();
+        assertEquals(1, records.size());
+        assertEquals("a-1", records.get("a").tokens.getAccessToken());
+    }
+
+    @Test
+    void corruptLengthEndsSnapshotAndFileIsRewritten() throws IOException {
+        Path file = dir.resolve("snapshot");
+        long expiresAt = System.currentTimeMillis() + 600_000;
+        TokenSnapshotStore store = store(file);
+        store.load();
+        store.append("a", tokens("a-1"), expiresAt);
+        long corrupt = Files.size(file);
+        store.append("b", tokens("b-1"), expiresAt);
+
+        // Length field of the second record: after its fingerprint "b" (2 + 1 bytes) and its expiry.
+        for (int length : new int[]{-1, Integer.MAX_VALUE}) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(corrupt + 3 + Long.BYTES);
+                raf.writeInt(length);
+            }
+
+            TokenSnapshotStore reloaded = store(file);
+            assertEquals(Map.of("a", "a-1"), accessTokens(reloaded.load()));
+            reloaded.append("b", tokens("b-1"), expiresAt);
+            assertEquals(Map.of("a", "a-1", "b", "b-1"), accessTokens(store(file).load()));
+        }
+    }
+
+    @Test
+    void replacesFileWhichIsNoSnapshot() throws IOException {
+        Path file = dir.resolve("snapshot");
+        Files.writeString(file, "not a snapshot");
+        TokenSnapshotStore store = store(file);
+
+        assertTrue(store.load().isEmpty());
+        store.append("a", tokens("a-1"), System.currentTimeMillis() + 600_000);
+        assertEquals(Map.of("a", "a-1"), accessTokens(store(file).load()));
+    }
+
+    private TokenSnapshotStore store(final Path file) {
+        return new TokenSnapshotStore(file, new ObjectMapper());
+    }
+
+    private static Map<String, String> accessTokens(final Map<String, TokenSnapshotStore.Record> records) {
+        Map<String, String> accessTokens = new HashMap<>();
+        records.forEach((fingerprint, record) -> accessTokens.put(fingerprint, record.tokens.getAccessToken()));
+        return accessTokens;
+    }
+
+    private static CSPTokens tokens(final String accessToken) throws IOException {
+        String json = "{\"access_token\":\"" + accessToken + "\",\"expires_in\":600,\"refresh_token\":\"refresh\"}";
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return CSPTokens.read(parser);
+        }
+    }
+}